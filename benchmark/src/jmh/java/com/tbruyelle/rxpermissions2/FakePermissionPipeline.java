@@ -0,0 +1,85 @@
+package com.tbruyelle.rxpermissions2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.reactivex.ObservableTransformer;
+
+/**
+ * 在普通JVM上运行的申请流程，Transformer使用和RxPermissions同一个PermissionPipeline，编排交给真正的PermissionEngine
+ * 权限检查和系统弹框使用假的PermissionBackend
+ */
+final class FakePermissionPipeline implements PermissionBackend {
+    static final Object TRIGGER = PermissionPipeline.TRIGGER;
+
+    private final PermissionEngine mEngine = new PermissionEngine();
+    private final PermissionPipeline mPipeline = new PermissionPipeline(new PermissionPipeline.Host() {
+        @Override
+        public PermissionEngine peekEngine() {
+            return mEngine;
+        }
+
+        @Override
+        public PermissionResultVector request(PermissionRequest request) {
+            PermissionResultVector results = PermissionEngine.check(request, FakePermissionPipeline.this, null, null, null);
+            if (!results.isComplete()) {
+                mEngine.requestPending(results, FakePermissionPipeline.this);
+            }
+            return results;
+        }
+    });
+    /**
+     * 假的权限检查：已经允许的权限
+     */
+    private final Set<String> mGranted = new HashSet<>();
+    /**
+     * 假的系统弹框：已经发起还没有回答的申请
+     */
+    private final List<String[]> mDialogs = new ArrayList<>();
+    private final List<Integer> mRequestCodes = new ArrayList<>();
+
+    void grant(String permission) {
+        mGranted.add(permission);
+    }
+
+    @Override
+    public boolean isGranted(String permission) {
+        return mGranted.contains(permission);
+    }
+
+    @Override
+    public boolean isRevoked(String permission) {
+        return false;
+    }
+
+    @Override
+    public void requestPermissions(String[] permissions) {
+        mDialogs.add(permissions);
+        mRequestCodes.add(mEngine.beginRequest(permissions));
+    }
+
+    <T> ObservableTransformer<T, Permission> ensureEach(PermissionRequest request) {
+        return mPipeline.ensureEach(request);
+    }
+
+    <T> ObservableTransformer<T, Boolean> ensure(PermissionRequest request) {
+        return mPipeline.ensure(request);
+    }
+
+    /**
+     * 假的用户操作：回答所有弹框，结果按请求码分发
+     */
+    void answerAll(boolean granted) {
+        for (int i = 0; i < mDialogs.size(); i++) {
+            String[] permissions = mDialogs.get(i);
+            int[] grantResults = new int[permissions.length];
+            Arrays.fill(grantResults, granted ? PermissionEngine.PERMISSION_GRANTED : -1);
+            mEngine.onRequestPermissionsResult(mRequestCodes.get(i), permissions, grantResults, new boolean[permissions.length]);
+        }
+        mDialogs.clear();
+        mRequestCodes.clear();
+    }
+}
@@ -0,0 +1,99 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.functions.BiConsumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+
+/**
+ * Permission(List)合并结果的性能对比，一次遍历的实现和原来三条RxJava链的实现
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PermissionAggregationBenchmark {
+    @Param({"1", "5", "10", "20", "50"})
+    int size;
+
+    private List<Permission> permissions;
+
+    @Setup
+    public void setup() {
+        permissions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            permissions.add(new Permission("android.permission.PERMISSION_" + i, i % 4 != 0, i % 3 == 0));
+        }
+    }
+
+    @Benchmark
+    public Permission singlePass() {
+        return new Permission(permissions);
+    }
+
+    @Benchmark
+    public Permission rxJava() {
+        return new Permission(combineName(permissions), combineGranted(permissions),
+                combineShouldShowRequestPermissionRationale(permissions));
+    }
+
+    /**
+     * 原来的实现，所有权限，用逗号分开组合为一个字符串
+     */
+    private static String combineName(List<Permission> permissions) {
+        return Observable.fromIterable(permissions)
+                .map(new Function<Permission, String>() {
+                    @Override
+                    public String apply(Permission permission) throws Exception {
+                        return permission.name;
+                    }
+                }).collectInto(new StringBuilder(), new BiConsumer<StringBuilder, String>() {
+                    @Override
+                    public void accept(StringBuilder s, String s2) throws Exception {
+                        if (s.length() == 0) {
+                            s.append(s2);
+                        } else {
+                            s.append(", ").append(s2);
+                        }
+                    }
+                }).blockingGet().toString();
+    }
+
+    /**
+     * 原来的实现，判断所有权限是否都允许了
+     */
+    private static boolean combineGranted(List<Permission> permissions) {
+        return Observable.fromIterable(permissions)
+                .all(new Predicate<Permission>() {
+                    @Override
+                    public boolean test(Permission permission) throws Exception {
+                        return permission.granted;
+                    }
+                }).blockingGet();
+    }
+
+    /**
+     * 原来的实现，判断权限列表中是否有一项需要显示说明
+     */
+    private static boolean combineShouldShowRequestPermissionRationale(List<Permission> permissions) {
+        return Observable.fromIterable(permissions)
+                .any(new Predicate<Permission>() {
+                    @Override
+                    public boolean test(Permission permission) throws Exception {
+                        return permission.shouldShowRequestPermissionRationale;
+                    }
+                }).blockingGet();
+    }
+}
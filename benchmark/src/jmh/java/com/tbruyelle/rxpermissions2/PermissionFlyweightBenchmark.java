@@ -0,0 +1,60 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重新检查12个已允许权限时的结果创建和比较，共享实例和每次创建新实例的对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PermissionFlyweightBenchmark {
+    private static final int SIZE = 12;
+
+    private String[] names;
+    private Permission[] previous;
+
+    @Setup
+    public void setup() {
+        names = new String[SIZE];
+        previous = new Permission[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            names[i] = ("android.permission.PERMISSION_" + i).intern();
+            previous[i] = Permission.of(names[i], true, false);
+        }
+    }
+
+    @Benchmark
+    public Permission[] allocate() {
+        //结果保存在结果向量中，和申请时一样会逃逸
+        Permission[] results = new Permission[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            results[i] = new Permission(names[i], true, false);
+            if (!results[i].equals(previous[i])) {
+                return null;
+            }
+        }
+        return results;
+    }
+
+    @Benchmark
+    public Permission[] flyweight() {
+        //结果保存在结果向量中，和申请时一样会逃逸
+        Permission[] results = new Permission[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            results[i] = Permission.of(names[i], true, false);
+            if (!results[i].equals(previous[i])) {
+                return null;
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,84 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.functions.Consumer;
+
+/**
+ * 申请流程的性能：构建Transformer、全部已允许的快速路径、弹框后的结果分发
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestPipelineBenchmark {
+    @Param({"1", "5", "10", "20", "50"})
+    int size;
+
+    private String[] names;
+    private PermissionRequest request;
+    private FakePermissionPipeline granted;
+    private FakePermissionPipeline denied;
+    private Observable<Object> trigger;
+
+    @Setup
+    public void setup() {
+        names = new String[size];
+        granted = new FakePermissionPipeline();
+        denied = new FakePermissionPipeline();
+        for (int i = 0; i < size; i++) {
+            names[i] = "android.permission.PERMISSION_" + i;
+            granted.grant(names[i]);
+        }
+        request = PermissionRequest.of(names);
+        trigger = Observable.just(FakePermissionPipeline.TRIGGER);
+    }
+
+    @Benchmark
+    public ObservableTransformer<Object, Permission> transformerConstruction() {
+        return granted.ensureEach(PermissionRequest.of(names));
+    }
+
+    @Benchmark
+    public void alreadyGranted(final Blackhole blackhole) {
+        trigger.compose(granted.<Object>ensureEach(request)).subscribe(new Consumer<Permission>() {
+            @Override
+            public void accept(Permission permission) {
+                blackhole.consume(permission);
+            }
+        });
+    }
+
+    @Benchmark
+    public void resultFanOut(final Blackhole blackhole) {
+        trigger.compose(denied.<Object>ensureEach(request)).subscribe(new Consumer<Permission>() {
+            @Override
+            public void accept(Permission permission) {
+                blackhole.consume(permission);
+            }
+        });
+        denied.answerAll(true);
+    }
+
+    @Benchmark
+    public void resultCombined(final Blackhole blackhole) {
+        trigger.compose(denied.<Object>ensure(request)).subscribe(new Consumer<Boolean>() {
+            @Override
+            public void accept(Boolean result) {
+                blackhole.consume(result);
+            }
+        });
+        denied.answerAll(true);
+    }
+}
@@ -0,0 +1,74 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.subjects.PublishSubject;
+
+/**
+ * 单次申请的结果分发性能对比，按请求码找回申请记录和原来按权限名逐个查找存根
+ * 每次调用都包含创建存根、发起申请、分发结果的完整过程
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResultDispatchBenchmark {
+    @Param({"1", "5", "20"})
+    int size;
+
+    private String[] permissions;
+    private PendingRequestRegistry registry;
+
+    @Setup
+    public void setup() {
+        permissions = new String[size];
+        for (int i = 0; i < size; i++) {
+            permissions[i] = "android.permission.PERMISSION_" + i;
+        }
+        registry = new PendingRequestRegistry();
+    }
+
+    @Benchmark
+    public int byRequestCode() {
+        List<String> created = new ArrayList<>(size);
+        for (String permission : permissions) {
+            registry.getOrCreate(permission, created);
+        }
+        int requestCode = registry.beginBatch(permissions).requestCode;
+
+        PermissionBatch batch = registry.endBatch(requestCode);
+        for (int i = 0; i < permissions.length; i++) {
+            int index = batch.indexOf(permissions[i], i);
+            PublishSubject<Permission> subject = batch.subjects[index];
+            registry.remove(batch.permissions[index], subject);
+            subject.onNext(new Permission(permissions[i], true, false));
+            subject.onComplete();
+        }
+        return requestCode;
+    }
+
+    @Benchmark
+    public int byName() {
+        List<String> created = new ArrayList<>(size);
+        for (String permission : permissions) {
+            registry.getOrCreate(permission, created);
+        }
+
+        for (String permission : permissions) {
+            PublishSubject<Permission> subject = registry.remove(permission);
+            subject.onNext(new Permission(permission, true, false));
+            subject.onComplete();
+        }
+        return created.size();
+    }
+}
@@ -0,0 +1,225 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 累加计数的指标实现，所有计数器都是无锁的，回调本身不会给主线程增加明显的开销
+ *
+ * @author wally
+ */
+public class CountingPermissionMetrics implements PermissionMetrics {
+    private static final int GRANTED = 0;
+    private static final int DENIED = 1;
+    private static final int RATIONALE = 2;
+
+    private final AtomicLong mAttachCount = new AtomicLong();
+    private final AtomicLong mAttachNanos = new AtomicLong();
+    private final AtomicLong mCheckCount = new AtomicLong();
+    private final AtomicLong mCheckNanos = new AtomicLong();
+    private final AtomicLong mQueueCount = new AtomicLong();
+    private final AtomicLong mQueueNanos = new AtomicLong();
+    private final AtomicLong mMaxQueueNanos = new AtomicLong();
+    private final AtomicLong mDialogCount = new AtomicLong();
+    private final AtomicLong mDialogNanos = new AtomicLong();
+    /**
+     * 所有权限的允许、拒绝、需要显示说明的次数
+     */
+    private final AtomicLongArray mTotalResults = new AtomicLongArray(3);
+    /**
+     * 每个权限的允许、拒绝、需要显示说明的次数
+     */
+    private final ConcurrentMap<String, AtomicLongArray> mResults = new ConcurrentHashMap<>();
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    private final AtomicInteger mMaxPendingCount = new AtomicInteger();
+
+    @Override
+    public void onFragmentAttached(long nanos) {
+        mAttachCount.incrementAndGet();
+        mAttachNanos.addAndGet(nanos);
+    }
+
+    @Override
+    public void onCheck(@NonNull String permission, long nanos) {
+        mCheckCount.incrementAndGet();
+        mCheckNanos.addAndGet(nanos);
+    }
+
+    @Override
+    public void onQueueWait(int priority, long nanos) {
+        mQueueCount.incrementAndGet();
+        mQueueNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = mMaxQueueNanos.get())) {
+            if (mMaxQueueNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void onDialogResult(int requestCode, int permissionCount, long nanos) {
+        mDialogCount.incrementAndGet();
+        mDialogNanos.addAndGet(nanos);
+    }
+
+    @Override
+    public void onResult(@NonNull String permission, boolean granted, boolean shouldShowRequestPermissionRationale) {
+        AtomicLongArray counts = mResults.get(permission);
+        if (counts == null) {
+            AtomicLongArray newCounts = new AtomicLongArray(3);
+            counts = mResults.putIfAbsent(permission, newCounts);
+            if (counts == null) {
+                counts = newCounts;
+            }
+        }
+        int index = granted ? GRANTED : DENIED;
+        counts.incrementAndGet(index);
+        mTotalResults.incrementAndGet(index);
+        if (shouldShowRequestPermissionRationale) {
+            counts.incrementAndGet(RATIONALE);
+            mTotalResults.incrementAndGet(RATIONALE);
+        }
+    }
+
+    @Override
+    public void onPendingChanged(int pendingCount) {
+        mPendingCount.set(pendingCount);
+        //无锁地更新最大值
+        int max;
+        while (pendingCount > (max = mMaxPendingCount.get())) {
+            if (mMaxPendingCount.compareAndSet(max, pendingCount)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 添加代理Fragment的次数
+     */
+    public long getFragmentAttachCount() {
+        return mAttachCount.get();
+    }
+
+    /**
+     * 添加代理Fragment的总耗时（纳秒）
+     */
+    public long getFragmentAttachNanos() {
+        return mAttachNanos.get();
+    }
+
+    /**
+     * 检查权限状态的次数
+     */
+    public long getCheckCount() {
+        return mCheckCount.get();
+    }
+
+    /**
+     * 检查权限状态的总耗时（纳秒）
+     */
+    public long getCheckNanos() {
+        return mCheckNanos.get();
+    }
+
+    /**
+     * 排队后开始弹框的申请次数
+     */
+    public long getQueuedCount() {
+        return mQueueCount.get();
+    }
+
+    /**
+     * 申请在队列中等待的总耗时（纳秒）
+     */
+    public long getQueueWaitNanos() {
+        return mQueueNanos.get();
+    }
+
+    /**
+     * 申请在队列中等待的最长耗时（纳秒）
+     */
+    public long getMaxQueueWaitNanos() {
+        return mMaxQueueNanos.get();
+    }
+
+    /**
+     * 系统申请收到结果的次数
+     */
+    public long getDialogCount() {
+        return mDialogCount.get();
+    }
+
+    /**
+     * 系统申请从发起到收到结果的总耗时（纳秒）
+     */
+    public long getDialogNanos() {
+        return mDialogNanos.get();
+    }
+
+    /**
+     * 所有权限被允许的次数
+     */
+    public long getGrantedCount() {
+        return mTotalResults.get(GRANTED);
+    }
+
+    /**
+     * 所有权限被拒绝的次数
+     */
+    public long getDeniedCount() {
+        return mTotalResults.get(DENIED);
+    }
+
+    /**
+     * 所有权限需要显示说明的次数
+     */
+    public long getRationaleCount() {
+        return mTotalResults.get(RATIONALE);
+    }
+
+    /**
+     * 权限被允许的次数
+     */
+    public long getGrantedCount(@NonNull String permission) {
+        return getCount(permission, GRANTED);
+    }
+
+    /**
+     * 权限被拒绝的次数
+     */
+    public long getDeniedCount(@NonNull String permission) {
+        return getCount(permission, DENIED);
+    }
+
+    /**
+     * 权限需要显示说明的次数
+     */
+    public long getRationaleCount(@NonNull String permission) {
+        return getCount(permission, RATIONALE);
+    }
+
+    /**
+     * 当前正在等待结果的权限数量
+     */
+    public int getPendingCount() {
+        return mPendingCount.get();
+    }
+
+    /**
+     * 同时等待结果的权限数量的最大值
+     */
+    public int getMaxPendingCount() {
+        return mMaxPendingCount.get();
+    }
+
+    private long getCount(String permission, int index) {
+        AtomicLongArray counts = mResults.get(permission);
+        return counts == null ? 0 : counts.get(index);
+    }
+}
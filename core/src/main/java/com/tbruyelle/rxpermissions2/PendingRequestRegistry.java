@@ -0,0 +1,320 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.reactivex.subjects.PublishSubject;
+
+/**
+ * 正在申请的权限的结果数据源存根登记表，线程安全
+ * 申请权限可能在任意线程触发，而申请结果在主线程回调，所以使用ConcurrentHashMap，读取不加锁
+ * 每次系统申请从一个小的请求码池中轮流分配请求码，请求码对应一条申请记录，多次申请同时进行时也能正确分发结果
+ *
+ * @author wally
+ */
+final class PendingRequestRegistry {
+    /**
+     * 第一个请求码，support库Fragment申请权限的请求码只能使用低16位，请求码池分配的请求码都小于256
+     */
+    static final int FIRST_REQUEST_CODE = 42;
+    /**
+     * 请求码池的大小
+     */
+    static final int REQUEST_CODE_POOL_SIZE = 16;
+
+    /**
+     * 权限名和结果数据源存根的映射
+     */
+    private final ConcurrentMap<String, PublishSubject<Permission>> mSubjects = new ConcurrentHashMap<>();
+    /**
+     * 正在进行的申请记录，下标为请求码减去第一个请求码
+     */
+    private final AtomicReferenceArray<PermissionBatch> mBatches = new AtomicReferenceArray<>(REQUEST_CODE_POOL_SIZE);
+    /**
+     * 下一个分配的请求码位置
+     */
+    private final AtomicInteger mNextSlot = new AtomicInteger();
+
+    /**
+     * 以权限名找回权限数据源存根
+     *
+     * @param permission 目标权限
+     * @return 没有正在申请则返回null
+     */
+    PublishSubject<Permission> get(@NonNull String permission) {
+        return mSubjects.get(permission);
+    }
+
+    /**
+     * 判断权限是否正在申请
+     *
+     * @param permission 目标权限
+     */
+    boolean contains(@NonNull String permission) {
+        return mSubjects.containsKey(permission);
+    }
+
+    /**
+     * 获取权限数据源存根，不存在则原子地创建一个，多个线程同时调用只会有一个创建成功
+     *
+     * @param permission 目标权限
+     * @param created    新创建了存根的权限会加入这个列表，说明需要发起申请
+     */
+    @NonNull
+    PublishSubject<Permission> getOrCreate(@NonNull String permission, @NonNull List<String> created) {
+        //大部分情况下已经存在，先直接读取，避免创建多余的存根
+        PublishSubject<Permission> subject = mSubjects.get(permission);
+        if (subject != null) {
+            return subject;
+        }
+        PublishSubject<Permission> newSubject = PublishSubject.create();
+        subject = mSubjects.putIfAbsent(permission, newSubject);
+        //其他线程抢先创建了，使用它创建的
+        if (subject != null) {
+            return subject;
+        }
+        created.add(permission);
+        return newSubject;
+    }
+
+    /**
+     * 保存权限申请存根
+     *
+     * @param permission 权限名
+     * @param subject    权限申请存根
+     */
+    void put(@NonNull String permission, @NonNull PublishSubject<Permission> subject) {
+        mSubjects.put(permission, subject);
+    }
+
+    /**
+     * 移除权限申请存根
+     *
+     * @param permission 权限名
+     * @return 被移除的存根，没有则返回null
+     */
+    PublishSubject<Permission> remove(@NonNull String permission) {
+        return mSubjects.remove(permission);
+    }
+
+    /**
+     * 移除权限申请存根，只有存根还是同一个时才移除
+     *
+     * @param permission 权限名
+     * @param subject    权限申请存根
+     */
+    boolean remove(@NonNull String permission, @NonNull PublishSubject<Permission> subject) {
+        return mSubjects.remove(permission, subject);
+    }
+
+    /**
+     * 开始一次系统申请，分配请求码并记录每个权限的存根
+     *
+     * @param permissions 申请的权限，存根需要已经通过getOrCreate创建
+     * @return 申请记录，请求码全部被占用时返回null，需要先通过{@link #pollOldest()}结束最早的申请
+     */
+    PermissionBatch beginBatch(@NonNull String[] permissions) {
+        PublishSubject<Permission>[] subjects = newSubjects(permissions.length);
+        for (int i = 0; i < permissions.length; i++) {
+            subjects[i] = mSubjects.get(permissions[i]);
+        }
+        //从上次分配的位置开始找一个空闲的请求码
+        int start = mNextSlot.getAndIncrement();
+        for (int i = 0; i < REQUEST_CODE_POOL_SIZE; i++) {
+            int slot = (start + i) & (REQUEST_CODE_POOL_SIZE - 1);
+            if (mBatches.get(slot) != null) {
+                continue;
+            }
+            PermissionBatch batch = new PermissionBatch(FIRST_REQUEST_CODE + slot, permissions, subjects, false);
+            if (mBatches.compareAndSet(slot, null, batch)) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按发起时间找回并移除最早的申请记录，请求码全部被占用时使用，说明有的申请一直没有回调
+     *
+     * @return 没有申请记录时返回null
+     */
+    PermissionBatch pollOldest() {
+        while (true) {
+            int oldestSlot = -1;
+            PermissionBatch oldest = null;
+            for (int slot = 0; slot < REQUEST_CODE_POOL_SIZE; slot++) {
+                PermissionBatch batch = mBatches.get(slot);
+                if (batch != null && (oldest == null || batch.startNanos - oldest.startNanos < 0)) {
+                    oldest = batch;
+                    oldestSlot = slot;
+                }
+            }
+            if (oldest == null) {
+                return null;
+            }
+            //其他线程可能同时结束了这个申请，重新查找
+            if (mBatches.compareAndSet(oldestSlot, oldest, null)) {
+                return oldest;
+            }
+        }
+    }
+
+    /**
+     * 恢复进程被回收前正在进行的系统申请，为每个权限创建存根，之后对这些权限的申请直接等待这次的结果，不会再次弹框
+     *
+     * @param requestCode 保存的请求码
+     * @param permissions 申请的权限
+     * @return 恢复的申请记录，请求码不是请求码池中的返回null
+     */
+    PermissionBatch restoreBatch(int requestCode, @NonNull String[] permissions) {
+        if (!isRequestCode(requestCode)) {
+            return null;
+        }
+        PublishSubject<Permission>[] subjects = newSubjects(permissions.length);
+        List<String> created = new ArrayList<>(permissions.length);
+        for (int i = 0; i < permissions.length; i++) {
+            subjects[i] = getOrCreate(permissions[i], created);
+        }
+        PermissionBatch batch = new PermissionBatch(requestCode, permissions, subjects, true);
+        mBatches.set(requestCode - FIRST_REQUEST_CODE, batch);
+        return batch;
+    }
+
+    /**
+     * 正在进行的申请记录的快照
+     */
+    @NonNull
+    List<PermissionBatch> batches() {
+        List<PermissionBatch> batches = new ArrayList<>();
+        for (int slot = 0; slot < REQUEST_CODE_POOL_SIZE; slot++) {
+            PermissionBatch batch = mBatches.get(slot);
+            if (batch != null) {
+                batches.add(batch);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * 请求码对应的申请记录是否还在
+     *
+     * @param requestCode 请求码
+     */
+    boolean isActive(int requestCode) {
+        return isRequestCode(requestCode) && mBatches.get(requestCode - FIRST_REQUEST_CODE) != null;
+    }
+
+    /**
+     * 申请结果返回，按请求码找回并移除申请记录
+     *
+     * @param requestCode 请求码
+     * @return 不是这里分配的请求码，或者已经处理过，返回null
+     */
+    PermissionBatch endBatch(int requestCode) {
+        if (!isRequestCode(requestCode)) {
+            return null;
+        }
+        return mBatches.getAndSet(requestCode - FIRST_REQUEST_CODE, null);
+    }
+
+    /**
+     * 申请结果返回，按请求码找回并移除申请记录，结果中的权限都不属于这次申请时不移除
+     * 请求码池耗尽时请求码会被复用，被挤掉的申请迟到的结果不能发给复用请求码的申请
+     *
+     * @param requestCode 请求码
+     * @param permissions 结果中的权限，为空表示用户取消了申请
+     * @return 不是这里分配的请求码，已经处理过，或者不是这次申请的结果，返回null
+     */
+    PermissionBatch endBatch(int requestCode, @NonNull String[] permissions) {
+        if (!isRequestCode(requestCode)) {
+            return null;
+        }
+        int slot = requestCode - FIRST_REQUEST_CODE;
+        PermissionBatch batch = mBatches.get(slot);
+        if (batch == null || !batch.containsAny(permissions)) {
+            return null;
+        }
+        return mBatches.compareAndSet(slot, batch, null) ? batch : null;
+    }
+
+    /**
+     * 查找包含该权限的申请记录的请求码
+     *
+     * @param permission 权限
+     * @return 没有找到返回-1
+     */
+    int findRequestCode(@NonNull String permission) {
+        for (int slot = 0; slot < REQUEST_CODE_POOL_SIZE; slot++) {
+            PermissionBatch batch = mBatches.get(slot);
+            if (batch != null && batch.indexOf(permission, -1) >= 0) {
+                return batch.requestCode;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 存根是否已经随着一次系统申请记录下来，记录下来的存根在申请结果返回时直接通过申请记录分发
+     *
+     * @param permission 权限
+     * @param subject    权限申请存根
+     */
+    boolean isRequested(@NonNull String permission, @NonNull PublishSubject<Permission> subject) {
+        for (int slot = 0; slot < REQUEST_CODE_POOL_SIZE; slot++) {
+            PermissionBatch batch = mBatches.get(slot);
+            if (batch != null) {
+                int index = batch.indexOf(permission, -1);
+                if (index >= 0 && batch.subjects[index] == subject) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 取出并移除一条在截止时间之前发起的申请记录
+     *
+     * @param deadlineNanos 截止时间，早于这个时间发起的申请视为过期
+     * @return 没有过期的申请返回null
+     */
+    PermissionBatch pollExpired(long deadlineNanos) {
+        for (int slot = 0; slot < REQUEST_CODE_POOL_SIZE; slot++) {
+            PermissionBatch batch = mBatches.get(slot);
+            //nanoTime可能溢出，比较差值
+            if (batch != null && batch.startNanos - deadlineNanos < 0 && mBatches.compareAndSet(slot, batch, null)) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 创建存根数组，泛型数组只能先创建通配符类型再转换
+     */
+    private static PublishSubject<Permission>[] newSubjects(int length) {
+        @SuppressWarnings("unchecked")
+        PublishSubject<Permission>[] subjects = (PublishSubject<Permission>[]) new PublishSubject<?>[length];
+        return subjects;
+    }
+
+    /**
+     * 是否是请求码池中的请求码
+     */
+    static boolean isRequestCode(int requestCode) {
+        return requestCode >= FIRST_REQUEST_CODE && requestCode < FIRST_REQUEST_CODE + REQUEST_CODE_POOL_SIZE;
+    }
+
+    /**
+     * 正在申请的权限数量
+     */
+    int size() {
+        return mSubjects.size();
+    }
+}
@@ -0,0 +1,154 @@
+package com.tbruyelle.rxpermissions2;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 权限实体
+ */
+public class Permission {
+    /**
+     * 共享实例的最大权限名数量，超过后不再缓存，避免传入任意字符串时无限增长
+     */
+    private static final int MAX_CANONICAL_NAMES = 256;
+    /**
+     * 共享实例缓存，每个权限名只有4种结果，按(granted, shouldShowRequestPermissionRationale)存放
+     */
+    private static final ConcurrentMap<String, Permission[]> CANONICAL = new ConcurrentHashMap<>();
+
+    /**
+     * 权限名
+     */
+    public final String name;
+    /**
+     * 是否允许
+     */
+    public final boolean granted;
+    /**
+     * 是否被用户勾选了不再提示
+     */
+    public final boolean shouldShowRequestPermissionRationale;
+    /**
+     * 缓存的哈希值，0表示还没有计算
+     */
+    private int mHashCode;
+
+    public Permission(String name, boolean granted) {
+        this(name, granted, false);
+    }
+
+    public Permission(String name, boolean granted, boolean shouldShowRequestPermissionRationale) {
+        this.name = name;
+        this.granted = granted;
+        this.shouldShowRequestPermissionRationale = shouldShowRequestPermissionRationale;
+    }
+
+    /**
+     * 获取共享的权限结果实例，Permission是不可变的，相同结果可以复用同一个实例，避免每次申请都创建新对象
+     *
+     * @param name                                 权限名
+     * @param granted                              是否允许
+     * @param shouldShowRequestPermissionRationale 是否需要显示说明
+     */
+    public static Permission of(String name, boolean granted, boolean shouldShowRequestPermissionRationale) {
+        Permission[] states = CANONICAL.get(name);
+        if (states == null) {
+            if (CANONICAL.size() >= MAX_CANONICAL_NAMES) {
+                return new Permission(name, granted, shouldShowRequestPermissionRationale);
+            }
+            states = new Permission[4];
+            Permission[] existing = CANONICAL.putIfAbsent(name, states);
+            if (existing != null) {
+                states = existing;
+            }
+        }
+        int index = (granted ? 2 : 0) | (shouldShowRequestPermissionRationale ? 1 : 0);
+        Permission permission = states[index];
+        if (permission == null) {
+            //并发时可能重复创建，字段都是final的，多出来的实例也是正确的，不需要加锁
+            permission = new Permission(name, granted, shouldShowRequestPermissionRationale);
+            states[index] = permission;
+        }
+        return permission;
+    }
+
+    /**
+     * 合并多个权限的结果，不经过RxJava，直接遍历得出权限名、是否全部允许、是否有一项需要显示说明
+     *
+     * @param permissions 权限列表
+     */
+    public Permission(List<Permission> permissions) {
+        //单个权限直接使用它的结果，不需要拼接
+        if (permissions.size() == 1) {
+            Permission permission = permissions.get(0);
+            name = permission.name;
+            granted = permission.granted;
+            shouldShowRequestPermissionRationale = permission.shouldShowRequestPermissionRationale;
+            return;
+        }
+        boolean combinedGranted = true;
+        boolean combinedRationale = false;
+        int length = 0;
+        for (Permission permission : permissions) {
+            //所有权限都允许了，才是允许
+            combinedGranted &= permission.granted;
+            //有一项需要显示说明，就需要显示说明
+            combinedRationale |= permission.shouldShowRequestPermissionRationale;
+            //顺便计算拼接后的长度，避免StringBuilder扩容
+            length += permission.name.length() + 2;
+        }
+        //所有权限，用逗号分开组合为一个字符串
+        StringBuilder combinedName = new StringBuilder(length);
+        for (Permission permission : permissions) {
+            if (combinedName.length() > 0) {
+                combinedName.append(", ");
+            }
+            combinedName.append(permission.name);
+        }
+        name = combinedName.toString();
+        granted = combinedGranted;
+        shouldShowRequestPermissionRationale = combinedRationale;
+    }
+
+    @Override
+    @SuppressWarnings("SimplifiableIfStatement")
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final Permission that = (Permission) o;
+        if (granted != that.granted) {
+            return false;
+        }
+        if (shouldShowRequestPermissionRationale != that.shouldShowRequestPermissionRationale) {
+            return false;
+        }
+        //共享实例和驻留的权限名大多可以直接按引用判断
+        return name == that.name || name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mHashCode;
+        if (result == 0) {
+            result = name.hashCode();
+            result = 31 * result + (granted ? 1 : 0);
+            result = 31 * result + (shouldShowRequestPermissionRationale ? 1 : 0);
+            mHashCode = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Permission{" +
+                "name='" + name + '\'' +
+                ", granted=" + granted +
+                ", shouldShowRequestPermissionRationale=" + shouldShowRequestPermissionRationale +
+                '}';
+    }
+}
@@ -0,0 +1,32 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 权限平台接口，PermissionEngine通过它检查权限和弹框申请，不直接依赖Android
+ * Android上由RxPermissionsFragment实现，测试和性能测试可以使用假的实现
+ *
+ * @author wally
+ */
+public interface PermissionBackend {
+    /**
+     * 权限是否已经允许
+     *
+     * @param permission 权限
+     */
+    boolean isGranted(@NonNull String permission);
+
+    /**
+     * 权限是否被策略撤销
+     *
+     * @param permission 权限
+     */
+    boolean isRevoked(@NonNull String permission);
+
+    /**
+     * 发起系统申请，申请结果通过{@link PermissionEngine#onRequestPermissionsResult(int, String[], int[], boolean[])}返回
+     *
+     * @param permissions 需要申请的权限
+     */
+    void requestPermissions(@NonNull String[] permissions);
+}
@@ -0,0 +1,79 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+import io.reactivex.subjects.PublishSubject;
+
+/**
+ * 一次系统权限申请的记录，每次申请使用独立的请求码，申请结果按请求码找回这条记录
+ * 记录中直接保存了每个权限的结果数据源存根，分发结果时不需要再按权限名查找
+ *
+ * @author wally
+ */
+final class PermissionBatch {
+    /**
+     * 请求码
+     */
+    final int requestCode;
+    /**
+     * 申请的权限
+     */
+    final String[] permissions;
+    /**
+     * 权限对应的结果数据源存根，下标和permissions一一对应
+     */
+    final PublishSubject<Permission>[] subjects;
+    /**
+     * 发起申请的时间，用于统计从弹框到收到结果的耗时
+     */
+    final long startNanos;
+    /**
+     * 是否是进程被回收后从保存的状态中恢复的申请
+     */
+    final boolean restored;
+
+    PermissionBatch(int requestCode, @NonNull String[] permissions, @NonNull PublishSubject<Permission>[] subjects,
+                    boolean restored) {
+        this.requestCode = requestCode;
+        this.permissions = permissions;
+        this.subjects = subjects;
+        this.startNanos = System.nanoTime();
+        this.restored = restored;
+    }
+
+    /**
+     * 查找权限在这次申请中的位置
+     *
+     * @param permission 权限
+     * @param hint       优先比较的位置，系统返回的结果一般和申请顺序一致
+     * @return 没有找到返回-1
+     */
+    int indexOf(@NonNull String permission, int hint) {
+        if (hint >= 0 && hint < permissions.length && permissions[hint].equals(permission)) {
+            return hint;
+        }
+        for (int i = 0; i < permissions.length; i++) {
+            if (permissions[i].equals(permission)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 结果中是否有属于这次申请的权限
+     *
+     * @param permissions 结果中的权限，为空时返回true
+     */
+    boolean containsAny(@NonNull String[] permissions) {
+        if (permissions.length == 0) {
+            return true;
+        }
+        for (int i = 0; i < permissions.length; i++) {
+            if (indexOf(permissions[i], i) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
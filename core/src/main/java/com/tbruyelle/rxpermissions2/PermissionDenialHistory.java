@@ -0,0 +1,25 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 权限拒绝历史，记录用户勾选了不再提示的权限，再次申请时直接返回拒绝，不再经过一次没有意义的系统申请
+ * 需要通过RxPermissions.setDenialHistory主动开启
+ *
+ * @author wally
+ */
+public interface PermissionDenialHistory {
+    /**
+     * 是否跳过系统申请，直接当作拒绝，只会对还没有允许的权限调用
+     *
+     * @param permission 权限
+     */
+    boolean shouldSkipRequest(@NonNull String permission);
+
+    /**
+     * 记录权限的最新状态，用户取消的申请不会记录
+     *
+     * @param permission 申请结果，或者检查时发现已经允许的结果
+     */
+    void onResult(@NonNull Permission permission);
+}
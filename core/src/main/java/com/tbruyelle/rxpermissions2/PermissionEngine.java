@@ -0,0 +1,708 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.functions.Action;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.ReplaySubject;
+
+/**
+ * 权限申请引擎，负责申请流程的编排：检查权限、登记正在申请的权限、分配请求码、按请求码分发结果
+ * 不依赖Android，权限检查和系统弹框通过{@link PermissionBackend}完成，可以直接在JVM上测试和性能测试
+ * 引擎保存正在申请的权限，需要和代理Fragment一样在屏幕旋转时保留
+ *
+ * @author wally
+ */
+public final class PermissionEngine {
+    /**
+     * 系统返回的允许结果，和PackageManager.PERMISSION_GRANTED一致
+     */
+    static final int PERMISSION_GRANTED = 0;
+    /**
+     * 保存状态时请求码占用的位数，只保存请求码池分配的请求码，它们都小于256，不需要Fragment允许的16位
+     */
+    private static final int SAVED_REQUEST_CODE_BITS = 8;
+    /**
+     * 保存状态时权限名表的最大长度，每次申请用一个long的低56位标记包含的权限
+     */
+    static final int MAX_SAVED_PERMISSIONS = Long.SIZE - SAVED_REQUEST_CODE_BITS;
+
+    /**
+     * 正在申请的权限的结果数据源存根
+     */
+    private final PendingRequestRegistry mSubjects = new PendingRequestRegistry();
+    /**
+     * 日志，没有设置时为null
+     */
+    private volatile PermissionLogger mLogger;
+    /**
+     * 指标监听，没有设置时为null
+     */
+    private volatile PermissionMetrics mMetrics;
+    /**
+     * 权限拒绝历史，没有开启时为null
+     */
+    private volatile PermissionDenialHistory mDenialHistory;
+    /**
+     * 所有申请结果的缓冲区，没有设置时为null
+     */
+    private volatile PermissionResultBuffer mResults;
+    /**
+     * 等待结果的超时时间，0表示不超时
+     */
+    private volatile long mPendingTimeoutNanos;
+    /**
+     * 被清理的存根数量，包括所有订阅者都取消了的和等待超时的
+     */
+    private final AtomicLong mEvictedCount = new AtomicLong();
+    /**
+     * 从保存的状态中恢复的申请的结果，进程被回收前订阅的订阅者已经不存在，结果缓存起来等待重新订阅
+     */
+    private final ReplaySubject<Permission> mRecovered = ReplaySubject.create();
+    /**
+     * 还没有收到结果的恢复的申请数量
+     */
+    private final AtomicInteger mRestoredCount = new AtomicInteger();
+
+    /**
+     * 检查每个权限的状态，已经允许或者已经撤销的权限直接得到结果，不需要引擎实例，也不会登记存根
+     * 拒绝历史中不再提示的权限也直接当作拒绝
+     *
+     * @param request 申请计划
+     * @param backend 权限检查
+     * @param history 拒绝历史，可以为null
+     * @param logger  日志，可以为null
+     * @param metrics 指标监听，可以为null
+     * @return 结果向量，需要弹框的权限没有结果，交给{@link #requestPending(PermissionResultVector, PermissionBackend)}
+     */
+    @NonNull
+    static PermissionResultVector check(@NonNull PermissionRequest request, @NonNull PermissionBackend backend,
+                                        PermissionDenialHistory history, PermissionLogger logger, PermissionMetrics metrics) {
+        final String[] permissions = request.permissions();
+        //权限申请的结果向量
+        PermissionResultVector results = new PermissionResultVector(permissions);
+        final boolean eventLoggable = logger != null && logger.isLoggable(PermissionLogger.INFO);
+        for (int i = 0; i < permissions.length; i++) {
+            String permission = permissions[i];
+            if (eventLoggable) {
+                logger.onEvent(PermissionLogger.EVENT_REQUEST, permission, -1, false);
+            }
+            final long start = metrics != null ? System.nanoTime() : 0;
+            final boolean granted = backend.isGranted(permission);
+            final boolean revoked = !granted && backend.isRevoked(permission);
+            if (metrics != null) {
+                metrics.onCheck(permission, System.nanoTime() - start);
+            }
+            //已经被允许的权限
+            if (granted) {
+                Permission result = Permission.of(permission, true, false);
+                results.setResult(i, result);
+                if (history != null) {
+                    //用户可能在设置中打开了权限，清除拒绝历史
+                    history.onResult(result);
+                }
+                continue;
+            }
+            //被撤销的权限，或者用户已经勾选了不再提示，系统申请只会立即返回拒绝
+            if (revoked || (history != null && history.shouldSkipRequest(permission))) {
+                if (!revoked && logger != null && logger.isLoggable(PermissionLogger.DEBUG)) {
+                    logger.log(PermissionLogger.DEBUG, "Skipping request for {}, denied permanently", permission);
+                }
+                results.setResult(i, Permission.of(permission, false, false));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 为还没有结果的权限登记存根，还没有在申请的权限交给平台弹框申请
+     *
+     * @param results 检查后的结果向量
+     * @param backend 平台
+     */
+    void requestPending(@NonNull PermissionResultVector results, @NonNull PermissionBackend backend) {
+        final String[] permissions = results.permissions();
+        //先清理等待超时的申请，避免新的申请加入到不会再有结果的存根上
+        if (mPendingTimeoutNanos > 0) {
+            evictExpired();
+        }
+        //待申请的权限列表
+        List<String> unrequestedPermissions = null;
+        for (int i = 0; i < permissions.length; i++) {
+            if (results.isResolved(i)) {
+                continue;
+            }
+            if (unrequestedPermissions == null) {
+                unrequestedPermissions = new ArrayList<>(permissions.length - i);
+            }
+            //获取权限申请存根，这种是为了避免快速请求多次，存入了多个结果数据源回调
+            //不存在则原子地创建一个，并加入待申请的权限，多个线程同时触发也只会申请一次
+            results.setPending(i, track(permissions[i], mSubjects.getOrCreate(permissions[i], unrequestedPermissions), backend));
+        }
+        if (unrequestedPermissions == null) {
+            return;
+        }
+        //如果存在需要申请的权限，则申请权限
+        if (!unrequestedPermissions.isEmpty()) {
+            //所有权限都需要申请时直接使用计划中的数组，申请过程不会修改它
+            String[] unrequestedPermissionsArray = unrequestedPermissions.size() == permissions.length
+                    ? permissions
+                    : unrequestedPermissions.toArray(new String[unrequestedPermissions.size()]);
+            backend.requestPermissions(unrequestedPermissionsArray);
+        }
+        PermissionMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.onPendingChanged(mSubjects.size());
+        }
+    }
+
+    /**
+     * 跟踪存根的订阅者，最后一个订阅者取消时移除存根，不再持有订阅者的回调
+     * 拿到存根后、订阅前存根已经被撤回时，重新登记存根并申请，不会订阅一个不会再有结果的存根
+     */
+    private Observable<Permission> track(@NonNull final String permission, @NonNull final PublishSubject<Permission> subject,
+                                         @NonNull final PermissionBackend backend) {
+        final Observable<Permission> tracked = subject.doFinally(new SubscriberRelease(permission, subject));
+        return Observable.defer(new Callable<ObservableSource<Permission>>() {
+            @Override
+            public ObservableSource<Permission> call() {
+                if (subject.hasComplete() || mSubjects.get(permission) == subject) {
+                    return tracked;
+                }
+                log(PermissionLogger.DEBUG, "Request for {} was withdrawn before subscribing, requesting again", permission);
+                List<String> created = new ArrayList<>(1);
+                PublishSubject<Permission> current = mSubjects.getOrCreate(permission, created);
+                if (!created.isEmpty()) {
+                    backend.requestPermissions(new String[]{permission});
+                }
+                return track(permission, current, backend);
+            }
+        });
+    }
+
+    /**
+     * 清理等待超时的申请，订阅者收到拒绝的结果后结束
+     */
+    private void evictExpired() {
+        long deadlineNanos = System.nanoTime() - mPendingTimeoutNanos;
+        PermissionBatch batch;
+        int evicted = 0;
+        while ((batch = mSubjects.pollExpired(deadlineNanos)) != null) {
+            log(PermissionLogger.DEBUG, "Pending request {} timed out", batch.requestCode);
+            evicted += expire(batch);
+        }
+        onEvicted(evicted);
+    }
+
+    /**
+     * 结束一次不会再有结果的申请，申请记录需要已经从请求码池中移除，订阅者收到拒绝的结果后结束
+     *
+     * @return 结束的存根数量
+     */
+    private int expire(PermissionBatch batch) {
+        int evicted = 0;
+        for (int i = 0; i < batch.permissions.length; i++) {
+            PublishSubject<Permission> subject = batch.subjects[i];
+            if (subject == null) {
+                continue;
+            }
+            mSubjects.remove(batch.permissions[i], subject);
+            Permission denied = Permission.of(batch.permissions[i], false, false);
+            if (batch.restored) {
+                mRecovered.onNext(denied);
+            }
+            subject.onNext(denied);
+            subject.onComplete();
+            evicted++;
+        }
+        onBatchFinished(batch);
+        return evicted;
+    }
+
+    /**
+     * 记录被清理的存根数量
+     */
+    private void onEvicted(int evicted) {
+        if (evicted > 0) {
+            mEvictedCount.addAndGet(evicted);
+            PermissionMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onPendingChanged(mSubjects.size());
+            }
+        }
+    }
+
+    /**
+     * 是否所有权限都正在申请
+     *
+     * @param request 申请计划
+     */
+    boolean isPending(@NonNull PermissionRequest request) {
+        for (String permission : request.permissions()) {
+            if (!mSubjects.contains(permission)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 过滤掉不需要再向系统申请的权限：所有订阅者都取消了而被撤回的，或者已经在其他系统申请中的
+     *
+     * @param permissions 合并窗口或者队列中的权限
+     * @return 还需要申请的权限，全部都需要时返回原数组
+     */
+    @NonNull
+    String[] filterUnrequested(@NonNull String[] permissions) {
+        List<String> unrequested = null;
+        for (int i = 0; i < permissions.length; i++) {
+            PublishSubject<Permission> subject = mSubjects.get(permissions[i]);
+            boolean keep = subject != null && !mSubjects.isRequested(permissions[i], subject);
+            if (keep && unrequested != null) {
+                unrequested.add(permissions[i]);
+            } else if (!keep && unrequested == null) {
+                unrequested = new ArrayList<>(permissions.length - 1);
+                for (int j = 0; j < i; j++) {
+                    unrequested.add(permissions[j]);
+                }
+            }
+        }
+        return unrequested == null ? permissions : unrequested.toArray(new String[unrequested.size()]);
+    }
+
+    /**
+     * 即将向系统申请，分配请求码并记录这次申请
+     *
+     * @param permissions 申请的权限
+     * @return 请求码
+     */
+    int beginRequest(@NonNull String[] permissions) {
+        PermissionBatch batch;
+        while ((batch = mSubjects.beginBatch(permissions)) == null) {
+            //请求码全部被占用，说明有的申请一直没有回调，结束最早的那个再复用它的请求码
+            PermissionBatch oldest = mSubjects.pollOldest();
+            if (oldest != null) {
+                log(PermissionLogger.WARN, "Request code pool exhausted, dropping request {}", oldest.requestCode);
+                onEvicted(expire(oldest));
+            }
+        }
+        if (isEventLoggable()) {
+            for (String permission : permissions) {
+                mLogger.onEvent(PermissionLogger.EVENT_SYSTEM_REQUEST, permission, batch.requestCode, false);
+            }
+        }
+        return batch.requestCode;
+    }
+
+    /**
+     * 请求码对应的系统申请是否还在等待结果，收到结果或者等待超时被清理后返回false
+     *
+     * @param requestCode 请求码
+     */
+    boolean isActiveRequest(int requestCode) {
+        return mSubjects.isActive(requestCode);
+    }
+
+    /**
+     * 权限是否已经发起了系统申请，还在等待结果
+     *
+     * @param permission 权限
+     */
+    boolean isRequested(@NonNull String permission) {
+        PublishSubject<Permission> subject = mSubjects.get(permission);
+        return subject != null && mSubjects.isRequested(permission, subject);
+    }
+
+    /**
+     * 清理等待超时的申请，没有设置超时时不做任何事
+     */
+    void evictExpiredRequests() {
+        if (mPendingTimeoutNanos > 0) {
+            evictExpired();
+        }
+    }
+
+    /**
+     * 是否是引擎分配的请求码
+     */
+    static boolean isRequestCode(int requestCode) {
+        return PendingRequestRegistry.isRequestCode(requestCode);
+    }
+
+    /**
+     * 保存正在进行的系统申请，进程被回收后用于恢复
+     * 所有申请的权限名合并为一张表，每次申请保存为一个long，高8位为请求码，低56位标记包含了表中的哪些权限
+     *
+     * @param names 输出的权限名表
+     * @return 每次申请的请求码和权限位置
+     */
+    @NonNull
+    long[] savePendingRequests(@NonNull List<String> names) {
+        List<PermissionBatch> batches = mSubjects.batches();
+        long[] requests = new long[batches.size()];
+        int count = 0;
+        for (PermissionBatch batch : batches) {
+            long mask = 0;
+            for (String permission : batch.permissions) {
+                int index = names.indexOf(permission);
+                if (index < 0) {
+                    index = names.size();
+                    names.add(permission);
+                }
+                if (index >= MAX_SAVED_PERMISSIONS) {
+                    //权限太多，放弃这次申请，收到结果时按未知请求码处理
+                    log(PermissionLogger.WARN, "Too many pending permissions to save, dropping request {}", batch.requestCode);
+                    mask = 0;
+                    break;
+                }
+                mask |= 1L << index;
+            }
+            if (mask != 0) {
+                requests[count++] = (long) batch.requestCode << MAX_SAVED_PERMISSIONS | mask;
+            }
+        }
+        return count == requests.length ? requests : Arrays.copyOf(requests, count);
+    }
+
+    /**
+     * 恢复进程被回收前正在进行的系统申请，收到结果后通过{@link #recoveredResults()}发送
+     *
+     * @param names    保存的权限名表
+     * @param requests 保存的每次申请的请求码和权限位置
+     */
+    void restorePendingRequests(@NonNull String[] names, @NonNull long[] requests) {
+        for (long request : requests) {
+            int requestCode = (int) (request >>> MAX_SAVED_PERMISSIONS);
+            long mask = request & ((1L << MAX_SAVED_PERMISSIONS) - 1);
+            String[] permissions = new String[Long.bitCount(mask)];
+            int count = 0;
+            for (int index = 0; index < names.length && count < permissions.length; index++) {
+                if ((mask & (1L << index)) != 0) {
+                    permissions[count++] = names[index];
+                }
+            }
+            if (count != permissions.length || mSubjects.restoreBatch(requestCode, permissions) == null) {
+                log(PermissionLogger.WARN, "Invalid saved permission request {}", requestCode);
+                continue;
+            }
+            mRestoredCount.incrementAndGet();
+            log(PermissionLogger.DEBUG, "Restored pending request {}", requestCode);
+        }
+    }
+
+    /**
+     * 恢复的申请的结果，缓存所有结果，所有恢复的申请都收到结果后结束
+     */
+    @NonNull
+    Observable<Permission> recoveredResults() {
+        //没有恢复过申请时直接结束
+        return mRestoredCount.get() > 0 || mRecovered.hasComplete() ? mRecovered : Observable.<Permission>empty();
+    }
+
+    /**
+     * 权限结果处理，没有请求码时按权限名找到对应的申请
+     *
+     * @param permissions                          权限列表
+     * @param grantResults                         申请结果
+     * @param shouldShowRequestPermissionRationale 是否需要显示说明
+     */
+    void onRequestPermissionsResult(@NonNull String[] permissions, @NonNull int[] grantResults,
+                                    @NonNull boolean[] shouldShowRequestPermissionRationale) {
+        int requestCode = permissions.length > 0 ? mSubjects.findRequestCode(permissions[0]) : -1;
+        onRequestPermissionsResult(requestCode, permissions, grantResults, shouldShowRequestPermissionRationale);
+    }
+
+    /**
+     * 权限结果处理，按请求码找回申请记录，直接使用记录中的存根分发结果
+     *
+     * @param requestCode                          请求码
+     * @param permissions                          权限列表
+     * @param grantResults                         申请结果
+     * @param shouldShowRequestPermissionRationale 是否需要显示说明
+     */
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults,
+                                           @NonNull boolean[] shouldShowRequestPermissionRationale) {
+        PermissionBatch batch = mSubjects.endBatch(requestCode, permissions);
+        if (batch == null) {
+            //不是通过请求码池发起的申请，按权限名分发
+            log(PermissionLogger.WARN, "RxPermissions.onRequestPermissionsResult invoked with unknown request code {}", requestCode);
+            if (isEventLoggable()) {
+                for (String permission : permissions) {
+                    mLogger.onEvent(PermissionLogger.EVENT_UNKNOWN_RESULT, permission, requestCode, false);
+                }
+            }
+            dispatchByName(permissions, grantResults, shouldShowRequestPermissionRationale);
+            return;
+        }
+        //先得到整次申请的结果向量，下标和申请记录一致
+        Permission[] results = new Permission[batch.permissions.length];
+        for (int i = 0, size = permissions.length; i < size; i++) {
+            int index = batch.indexOf(permissions[i], i);
+            if (index < 0 || results[index] != null) {
+                log(PermissionLogger.ERROR, "RxPermissions.onRequestPermissionsResult invoked with a permission not in the request: {}", permissions[i]);
+                continue;
+            }
+            boolean granted = grantResults[i] == PERMISSION_GRANTED;
+            //已经允许的权限不需要说明
+            results[index] = Permission.of(permissions[i], granted, !granted && shouldShowRequestPermissionRationale[i]);
+            recordHistory(results[index]);
+        }
+        //用户取消申请时系统返回空的结果，没有收到结果的权限当作拒绝
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                log(PermissionLogger.DEBUG, "onRequestPermissionsResult {} without result", batch.permissions[i]);
+                results[i] = Permission.of(batch.permissions[i], false, false);
+            }
+        }
+        deliver(batch, results);
+        onBatchFinished(batch);
+        PermissionMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.onDialogResult(requestCode, batch.permissions.length, System.nanoTime() - batch.startNanos);
+            metrics.onPendingChanged(mSubjects.size());
+        }
+    }
+
+    /**
+     * 将整次申请的结果向量发送给申请记录中的存根
+     * 先移除所有存根并记录结果，再统一发送，订阅者收到结果时这次申请已经完全结束
+     */
+    private void deliver(PermissionBatch batch, Permission[] results) {
+        final boolean eventLoggable = isEventLoggable();
+        final PermissionMetrics metrics = mMetrics;
+        for (int i = 0; i < results.length; i++) {
+            Permission permission = results[i];
+            if (batch.restored) {
+                mRecovered.onNext(permission);
+            }
+            publish(permission);
+            PublishSubject<Permission> subject = batch.subjects[i];
+            if (subject == null) {
+                continue;
+            }
+            //只移除这次申请的存根，之后的新申请不受影响
+            mSubjects.remove(batch.permissions[i], subject);
+            if (eventLoggable) {
+                mLogger.onEvent(PermissionLogger.EVENT_RESULT, permission.name, batch.requestCode, permission.granted);
+            }
+            if (metrics != null) {
+                metrics.onResult(permission.name, permission.granted, permission.shouldShowRequestPermissionRationale);
+            }
+        }
+        for (int i = 0; i < results.length; i++) {
+            PublishSubject<Permission> subject = batch.subjects[i];
+            if (subject != null) {
+                subject.onNext(results[i]);
+                subject.onComplete();
+            }
+        }
+    }
+
+    /**
+     * 一次申请结束，所有恢复的申请都结束后结束恢复结果的数据源
+     */
+    private void onBatchFinished(PermissionBatch batch) {
+        if (batch.restored && mRestoredCount.decrementAndGet() == 0) {
+            mRecovered.onComplete();
+        }
+    }
+
+    /**
+     * 将申请结果写入全局的结果缓冲区
+     */
+    private void publish(Permission permission) {
+        PermissionResultBuffer results = mResults;
+        if (results != null) {
+            results.add(permission);
+        }
+    }
+
+    /**
+     * 将申请结果记录到拒绝历史
+     */
+    private void recordHistory(Permission permission) {
+        PermissionDenialHistory history = mDenialHistory;
+        if (history != null) {
+            history.onResult(permission);
+        }
+    }
+
+    /**
+     * 按权限名找回数据源存根并分发结果
+     */
+    private void dispatchByName(String[] permissions, int[] grantResults, boolean[] shouldShowRequestPermissionRationale) {
+        for (int i = 0, size = permissions.length; i < size; i++) {
+            //用回权限映射找回数据源存根，并移除存根
+            PublishSubject<Permission> subject = mSubjects.remove(permissions[i]);
+            if (subject == null) {
+                //一般不会找不到，如果找不到则抛异常
+                log(PermissionLogger.ERROR, "RxPermissions.onRequestPermissionsResult invoked but didn't find the corresponding permission request: {}", permissions[i]);
+                //继续分发其他权限的结果
+                continue;
+            }
+            //判断是否被允许了
+            boolean granted = grantResults[i] == PERMISSION_GRANTED;
+            Permission result = Permission.of(permissions[i], granted, !granted && shouldShowRequestPermissionRationale[i]);
+            recordHistory(result);
+            publish(result);
+            if (isEventLoggable()) {
+                mLogger.onEvent(PermissionLogger.EVENT_RESULT, permissions[i], -1, granted);
+            }
+            PermissionMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onResult(permissions[i], granted, result.shouldShowRequestPermissionRationale);
+            }
+            //将结果发送回订阅者
+            subject.onNext(result);
+            subject.onComplete();
+        }
+    }
+
+    /**
+     * 设置日志实现
+     *
+     * @param logger 日志，null表示关闭
+     */
+    void setLogger(PermissionLogger logger) {
+        mLogger = logger;
+    }
+
+    /**
+     * 设置指标监听
+     *
+     * @param metrics 指标监听，null表示关闭
+     */
+    void setMetrics(PermissionMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 设置权限拒绝历史
+     *
+     * @param history 拒绝历史，null表示关闭
+     */
+    void setDenialHistory(PermissionDenialHistory history) {
+        mDenialHistory = history;
+    }
+
+    /**
+     * 设置申请结果的缓冲区，系统返回的每个结果都会写入
+     *
+     * @param results 结果缓冲区，null表示不写入
+     */
+    void setResultBuffer(PermissionResultBuffer results) {
+        mResults = results;
+    }
+
+    /**
+     * 设置等待结果的超时时间，超时的申请在下一次申请时清理
+     *
+     * @param timeoutMillis 超时时间（毫秒），0表示不超时
+     */
+    void setPendingTimeout(long timeoutMillis) {
+        mPendingTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * 被清理的存根数量
+     */
+    long getEvictedCount() {
+        return mEvictedCount.get();
+    }
+
+    /**
+     * 正在等待结果的权限数量
+     */
+    int getPendingCount() {
+        return mSubjects.size();
+    }
+
+    /**
+     * 以权限名找回权限数据源存根
+     */
+    PublishSubject<Permission> getSubject(@NonNull String permission) {
+        return mSubjects.get(permission);
+    }
+
+    /**
+     * 判断权限是否正在申请
+     */
+    boolean contains(@NonNull String permission) {
+        return mSubjects.contains(permission);
+    }
+
+    /**
+     * 保存权限申请存根
+     */
+    void putSubject(@NonNull String permission, @NonNull PublishSubject<Permission> subject) {
+        mSubjects.put(permission, subject);
+    }
+
+    /**
+     * Log打印，级别关闭时不会格式化消息
+     */
+    private void log(int level, String message, Object arg) {
+        PermissionLogger logger = mLogger;
+        if (logger != null && logger.isLoggable(level)) {
+            logger.log(level, message, arg);
+        }
+    }
+
+    /**
+     * 是否需要发送结构化事件
+     */
+    private boolean isEventLoggable() {
+        PermissionLogger logger = mLogger;
+        return logger != null && logger.isLoggable(PermissionLogger.INFO);
+    }
+
+    /**
+     * 订阅结束时检查存根是否还有订阅者，最后一个订阅者取消时移除存根
+     * 申请框正在显示的存根保留，屏幕旋转后再次申请同样的权限会加入这次申请，不会再次弹框，超时后才清理
+     * 还在合并窗口或者排队等待弹框的存根直接撤回，发起系统申请前会被过滤掉，不会再弹框
+     */
+    private final class SubscriberRelease implements Action {
+        private final String mPermission;
+        private final PublishSubject<Permission> mSubject;
+
+        SubscriberRelease(String permission, PublishSubject<Permission> subject) {
+            mPermission = permission;
+            mSubject = subject;
+        }
+
+        @Override
+        public void run() {
+            if (mSubject.hasComplete() || mSubject.hasObservers()) {
+                return;
+            }
+            if (mSubjects.isRequested(mPermission, mSubject)) {
+                //存根没有订阅者时不持有任何回调，留给之后的申请加入，结果返回时正常移除
+                log(PermissionLogger.DEBUG, "Pending request for {} abandoned by all subscribers, kept until its result", mPermission);
+                if (mPendingTimeoutNanos > 0) {
+                    evictExpired();
+                }
+                return;
+            }
+            if (!mSubjects.remove(mPermission, mSubject)) {
+                return;
+            }
+            mEvictedCount.incrementAndGet();
+            //只从登记中移除，不结束存根，刚拿到这个存根还没有订阅的申请订阅时会重新申请
+            log(PermissionLogger.DEBUG, "Queued request for {} withdrawn by all subscribers", mPermission);
+            PermissionMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onPendingChanged(mSubjects.size());
+            }
+        }
+    }
+}
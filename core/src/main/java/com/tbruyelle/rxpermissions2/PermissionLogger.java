@@ -0,0 +1,63 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 权限申请日志接口，可以替换为自己的实现，例如接入自己的日志或者统计系统
+ * 调用方会先通过isLoggable判断级别，关闭时不会拼接字符串，也不会创建任何对象
+ *
+ * @author wally
+ */
+public interface PermissionLogger {
+    /**
+     * 日志级别，和android.util.Log中的值一致
+     */
+    int DEBUG = 3;
+    int INFO = 4;
+    int WARN = 5;
+    int ERROR = 6;
+
+    /**
+     * 事件：订阅者申请权限，requestCode为-1
+     */
+    int EVENT_REQUEST = 1;
+    /**
+     * 事件：向系统发起申请
+     */
+    int EVENT_SYSTEM_REQUEST = 2;
+    /**
+     * 事件：收到申请结果，granted为是否允许
+     */
+    int EVENT_RESULT = 3;
+    /**
+     * 事件：收到不认识的请求码的申请结果
+     */
+    int EVENT_UNKNOWN_RESULT = 4;
+
+    /**
+     * 是否记录该级别，日志消息使用{@link #DEBUG}，结构化事件使用{@link #INFO}
+     *
+     * @param level 日志级别
+     */
+    boolean isLoggable(int level);
+
+    /**
+     * 记录日志，只有isLoggable返回true时才会调用
+     *
+     * @param level   日志级别
+     * @param message 日志模板，第一个{}会被替换为参数
+     * @param arg     参数，数组会用逗号连接
+     */
+    void log(int level, @NonNull String message, @Nullable Object arg);
+
+    /**
+     * 结构化事件，每个权限一次，只有isLoggable(INFO)返回true时才会调用
+     *
+     * @param event       事件类型，EVENT_开头的常量
+     * @param permission  权限
+     * @param requestCode 请求码，没有时为-1
+     * @param granted     是否允许，只有EVENT_RESULT有意义
+     */
+    void onEvent(int event, @NonNull String permission, int requestCode, boolean granted);
+}
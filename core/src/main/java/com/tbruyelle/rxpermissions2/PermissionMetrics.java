@@ -0,0 +1,60 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 权限申请流程的指标监听，RxPermissions在固定的位置回调，可以接入自己的监控系统
+ * 回调可能发生在任意线程，实现需要线程安全，并且不能做耗时操作
+ * 可以直接使用{@link CountingPermissionMetrics}
+ *
+ * @author wally
+ */
+public interface PermissionMetrics {
+    /**
+     * 添加了代理Fragment
+     *
+     * @param nanos 查找和添加Fragment的耗时
+     */
+    void onFragmentAttached(long nanos);
+
+    /**
+     * 检查了一个权限的状态（是否允许、是否被撤销）
+     *
+     * @param permission 权限
+     * @param nanos      检查耗时
+     */
+    void onCheck(@NonNull String permission, long nanos);
+
+    /**
+     * 一次申请排队结束，开始弹框
+     *
+     * @param priority 申请的优先级
+     * @param nanos    在队列中等待的耗时
+     */
+    void onQueueWait(int priority, long nanos);
+
+    /**
+     * 一次系统申请收到了结果
+     *
+     * @param requestCode     请求码
+     * @param permissionCount 这次申请的权限数量
+     * @param nanos           从发起申请到收到结果的耗时
+     */
+    void onDialogResult(int requestCode, int permissionCount, long nanos);
+
+    /**
+     * 一个权限收到了申请结果
+     *
+     * @param permission                           权限
+     * @param granted                              是否允许
+     * @param shouldShowRequestPermissionRationale 是否需要显示说明
+     */
+    void onResult(@NonNull String permission, boolean granted, boolean shouldShowRequestPermissionRationale);
+
+    /**
+     * 正在等待结果的权限数量发生了变化
+     *
+     * @param pendingCount 正在等待结果的权限数量
+     */
+    void onPendingChanged(int pendingCount);
+}
@@ -0,0 +1,302 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Single;
+import io.reactivex.SingleSource;
+import io.reactivex.SingleTransformer;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Function;
+
+/**
+ * 申请权限Transformer的组合：触发和正在进行的申请一一匹配、申请框显示期间的触发共用结果、结果向量转换为发送给订阅者的结果
+ * 权限检查和发起申请交给宿主，RxPermissions和基准测试使用同一套组合
+ *
+ * @author wally
+ */
+final class PermissionPipeline {
+    /**
+     * 用于发起Rx数据源的空对象
+     */
+    static final Object TRIGGER = new Object();
+    /**
+     * 合并结果：全部都允许了才返回true
+     */
+    static final Function<Permission[], Boolean> ALL_GRANTED = new Function<Permission[], Boolean>() {
+        @Override
+        public Boolean apply(Permission[] permissions) {
+            for (Permission permission : permissions) {
+                if (!permission.granted) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    };
+    /**
+     * 合并结果：合并为一个Permission
+     */
+    static final Function<Permission[], Permission> COMBINED = new Function<Permission[], Permission>() {
+        @Override
+        public Permission apply(Permission[] permissions) {
+            //单个权限直接使用它的结果
+            if (permissions.length == 1) {
+                return permissions[0];
+            }
+            return new Permission(Arrays.asList(permissions));
+        }
+    };
+
+    /**
+     * 申请流程的宿主
+     */
+    interface Host {
+        /**
+         * 获取已经存在的申请引擎，不会为了判断是否有正在进行的申请而创建
+         *
+         * @return 还没有创建时返回null
+         */
+        @Nullable
+        PermissionEngine peekEngine();
+
+        /**
+         * 检查权限，需要弹框的权限交给申请引擎
+         *
+         * @param request 申请计划
+         * @return 结果向量
+         */
+        @NonNull
+        PermissionResultVector request(@NonNull PermissionRequest request);
+    }
+
+    private final Host mHost;
+    /**
+     * 共用了正在进行的申请结果的触发数量
+     */
+    private final AtomicLong mCoalescedTriggerCount = new AtomicLong();
+
+    PermissionPipeline(@NonNull Host host) {
+        mHost = host;
+    }
+
+    /**
+     * 共用了正在进行的申请结果的触发数量
+     */
+    long getCoalescedTriggerCount() {
+        return mCoalescedTriggerCount.get();
+    }
+
+    /**
+     * 批量申请权限，全部都允许了才返回true
+     *
+     * @param request 申请计划
+     */
+    <T> ObservableTransformer<T, Boolean> ensure(@NonNull final PermissionRequest request) {
+        return new ObservableTransformer<T, Boolean>() {
+            @Override
+            public ObservableSource<Boolean> apply(Observable<T> o) {
+                //一次性申请，所有权限都有结果后，直接从结果向量得出是否全部允许
+                return request(o, ALL_GRANTED, request);
+            }
+        };
+    }
+
+    /**
+     * 申请权限，每个权限通知订阅者一次
+     *
+     * @param request 申请计划
+     */
+    <T> ObservableTransformer<T, Permission> ensureEach(@NonNull final PermissionRequest request) {
+        return new ObservableTransformer<T, Permission>() {
+            @Override
+            public ObservableSource<Permission> apply(Observable<T> o) {
+                return request(o, request);
+            }
+        };
+    }
+
+    /**
+     * 批量申请权限，返回合并后的Permission
+     *
+     * @param request 申请计划
+     */
+    <T> ObservableTransformer<T, Permission> ensureEachCombined(@NonNull final PermissionRequest request) {
+        return new ObservableTransformer<T, Permission>() {
+            @Override
+            public ObservableSource<Permission> apply(Observable<T> o) {
+                //一次性申请，所有权限都有结果后，直接从结果向量合并为一个结果
+                return request(o, COMBINED, request);
+            }
+        };
+    }
+
+    /**
+     * 由Single触发的批量申请，全部都允许了才返回true
+     *
+     * @param request 申请计划
+     */
+    <T> SingleTransformer<T, Boolean> ensureSingle(@NonNull final PermissionRequest request) {
+        return ensureSingle(request, ALL_GRANTED);
+    }
+
+    /**
+     * 由Single触发的批量申请，返回合并后的Permission
+     *
+     * @param request 申请计划
+     */
+    <T> SingleTransformer<T, Permission> ensureEachCombinedSingle(@NonNull final PermissionRequest request) {
+        return ensureSingle(request, COMBINED);
+    }
+
+    /**
+     * 由Single触发的批量申请，所有权限都有结果后合并为一个结果
+     *
+     * @param request  申请计划
+     * @param combiner 结果合并函数
+     */
+    private <T, R> SingleTransformer<T, R> ensureSingle(final PermissionRequest request, final Function<Permission[], R> combiner) {
+        return new SingleTransformer<T, R>() {
+            @Override
+            public SingleSource<R> apply(Single<T> s) {
+                return s.flatMap(new Function<T, SingleSource<R>>() {
+                    @Override
+                    public SingleSource<R> apply(T t) {
+                        return mHost.request(request).combine(combiner);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * 申请权限request中转
+     *
+     * @param trigger 原始数据源
+     * @param request 申请计划
+     */
+    private Observable<Permission> request(final Observable<?> trigger, final PermissionRequest request) {
+        return coalesce(trigger, request, new Function<PermissionResultVector, ObservableSource<Permission>>() {
+            @Override
+            public ObservableSource<Permission> apply(PermissionResultVector results) {
+                //每个权限的结果逐个发送
+                return results.toObservable();
+            }
+        });
+    }
+
+    /**
+     * 申请权限request中转，所有权限都有结果后合并为一个结果
+     *
+     * @param trigger  原始数据源
+     * @param combiner 结果合并函数
+     * @param request  申请计划
+     */
+    private <R> Observable<R> request(final Observable<?> trigger, final Function<Permission[], R> combiner,
+                                      final PermissionRequest request) {
+        return coalesce(trigger, request, new Function<PermissionResultVector, ObservableSource<R>>() {
+            @Override
+            public ObservableSource<R> apply(PermissionResultVector results) {
+                return results.combine(combiner).toObservable();
+            }
+        });
+    }
+
+    /**
+     * 每个触发申请一次，申请框还在显示时的触发（例如连续点击）直接共用正在进行的申请的结果，
+     * 不再重新检查权限和加入申请引擎，每个触发仍然收到完整的一次结果
+     * 正在进行的申请的结果会缓存下来，之后的触发先收到已经返回的结果，不会重新订阅已经结束的存根
+     * 正在进行的申请按订阅分别记录，不同的数据源之间互不影响
+     *
+     * @param trigger 原始数据源
+     * @param request 申请计划
+     * @param mapper  从结果向量得到发送给订阅者的结果
+     */
+    private <R> Observable<R> coalesce(final Observable<?> trigger, final PermissionRequest request,
+                                       final Function<PermissionResultVector, ObservableSource<R>> mapper) {
+        //数据源一一匹配，确保是成对存在
+        final Observable<?> source = oneOf(trigger, pending(request));
+        return Observable.defer(new Callable<ObservableSource<R>>() {
+            @Override
+            public ObservableSource<R> call() {
+                //这次订阅正在等待申请结果的共享结果
+                final AtomicReference<Observable<R>> inFlight = new AtomicReference<>();
+                return source.flatMap(new Function<Object, ObservableSource<R>>() {
+                    @Override
+                    public ObservableSource<R> apply(Object o) throws Exception {
+                        Observable<R> current = inFlight.get();
+                        if (current != null) {
+                            mCoalescedTriggerCount.incrementAndGet();
+                            return current;
+                        }
+                        //真正申请权限的实现
+                        PermissionResultVector results = mHost.request(request);
+                        if (!results.hasPending()) {
+                            return mapper.apply(results);
+                        }
+                        //所有触发都取消时才取消订阅存根，结果返回后不再共用
+                        //共享的结果结束时refCount已经断开连接，在发送给订阅者之前清除，之后的触发重新申请
+                        InFlightRelease<R> release = new InFlightRelease<>(inFlight);
+                        Observable<R> shared = Observable.wrap(mapper.apply(results)).replay().refCount()
+                                .doOnTerminate(release);
+                        release.mShared = shared;
+                        inFlight.set(shared);
+                        return shared;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 共享的结果结束后清除正在进行的申请，只清除自己，不会清除之后的申请
+     */
+    private static final class InFlightRelease<R> implements Action {
+        private final AtomicReference<Observable<R>> mInFlight;
+        /**
+         * 共享的结果，返回给flatMap订阅之前设置
+         */
+        Observable<R> mShared;
+
+        InFlightRelease(AtomicReference<Observable<R>> inFlight) {
+            mInFlight = inFlight;
+        }
+
+        @Override
+        public void run() {
+            mInFlight.compareAndSet(mShared, null);
+        }
+    }
+
+    /**
+     * 过滤掉权限和结果数据源不匹配的情况
+     *
+     * @param request 申请计划
+     */
+    private Observable<?> pending(final PermissionRequest request) {
+        //还没有申请引擎，肯定没有正在申请的权限
+        PermissionEngine engine = mHost.peekEngine();
+        if (engine == null || !engine.isPending(request)) {
+            return Observable.empty();
+        }
+        return Observable.just(TRIGGER);
+    }
+
+    /**
+     * 数据源一一匹配，确保是成对存在
+     */
+    private Observable<?> oneOf(Observable<?> trigger, Observable<?> pending) {
+        if (trigger == null) {
+            return Observable.just(TRIGGER);
+        }
+        return Observable.merge(trigger, pending);
+    }
+}
@@ -0,0 +1,159 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 预先编译好的权限申请计划，不可变，可以保存为常量在多次申请之间复用
+ * 构建时去重、驻留权限名，申请时不再需要复制和整理权限列表
+ * 结果按第一次出现的顺序发送，相等性按排好序的权限集合和优先级比较，和传入顺序无关
+ *
+ * @author wally
+ */
+public final class PermissionRequest {
+    /**
+     * 后台发起的申请，其他申请都处理完才弹框
+     */
+    public static final int PRIORITY_BACKGROUND = 0;
+    /**
+     * 预先申请之后可能用到的权限
+     */
+    public static final int PRIORITY_PREFETCH = 1;
+    /**
+     * 用户操作触发的申请（默认），优先弹框
+     */
+    public static final int PRIORITY_USER_INITIATED = 2;
+
+    /**
+     * 去重后的权限，按第一次出现的顺序
+     */
+    private final String[] mPermissions;
+    /**
+     * 排好序的权限，用于比较
+     */
+    private final String[] mSorted;
+    /**
+     * 缓存的哈希值
+     */
+    private final int mHashCode;
+    /**
+     * 优先级，多个申请排队等待弹框时，优先级高的先弹框
+     */
+    private final int mPriority;
+
+    private PermissionRequest(@NonNull String[] permissions, @NonNull String[] sorted, int priority) {
+        mPermissions = permissions;
+        mSorted = sorted;
+        mPriority = priority;
+        mHashCode = 31 * Arrays.hashCode(sorted) + priority;
+    }
+
+    /**
+     * 构建申请计划
+     *
+     * @param permissions 需要申请的权限，至少一个，重复的权限只会申请一次
+     */
+    @NonNull
+    public static PermissionRequest of(String... permissions) {
+        if (permissions == null || permissions.length == 0) {
+            throw new IllegalArgumentException("RxPermissions.request/requestEach requires at least one input permission");
+        }
+        Set<String> unique = new LinkedHashSet<>(permissions.length * 2);
+        for (String permission : permissions) {
+            if (permission == null) {
+                throw new IllegalArgumentException("RxPermissions.request/requestEach does not accept null permission");
+            }
+            //驻留权限名，之后作为Map的key比较时大多可以直接按引用判断
+            unique.add(permission.intern());
+        }
+        String[] deduplicated = unique.toArray(new String[unique.size()]);
+        String[] sorted = deduplicated.clone();
+        Arrays.sort(sorted);
+        return new PermissionRequest(deduplicated, sorted, PRIORITY_USER_INITIATED);
+    }
+
+    /**
+     * 使用另一个优先级的申请计划，权限不变
+     *
+     * @param priority {@link #PRIORITY_USER_INITIATED}、{@link #PRIORITY_PREFETCH}或{@link #PRIORITY_BACKGROUND}
+     */
+    @NonNull
+    public PermissionRequest withPriority(int priority) {
+        if (priority < PRIORITY_BACKGROUND || priority > PRIORITY_USER_INITIATED) {
+            throw new IllegalArgumentException("Unknown priority " + priority);
+        }
+        if (priority == mPriority) {
+            return this;
+        }
+        return new PermissionRequest(mPermissions, mSorted, priority);
+    }
+
+    /**
+     * 优先级
+     */
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * 权限数量
+     */
+    public int size() {
+        return mPermissions.length;
+    }
+
+    /**
+     * 获取指定位置的权限
+     */
+    @NonNull
+    public String get(int index) {
+        return mPermissions[index];
+    }
+
+    /**
+     * 是否包含该权限
+     */
+    public boolean contains(@NonNull String permission) {
+        return Arrays.binarySearch(mSorted, permission) >= 0;
+    }
+
+    /**
+     * 获取权限列表的副本
+     */
+    @NonNull
+    public String[] toArray() {
+        return mPermissions.clone();
+    }
+
+    /**
+     * 内部使用的权限数组，不复制，调用方不能修改
+     */
+    String[] permissions() {
+        return mPermissions;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PermissionRequest that = (PermissionRequest) o;
+        return mHashCode == that.mHashCode && mPriority == that.mPriority && Arrays.equals(mSorted, that.mSorted);
+    }
+
+    @Override
+    public int hashCode() {
+        return mHashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionRequest" + Arrays.toString(mPermissions);
+    }
+}
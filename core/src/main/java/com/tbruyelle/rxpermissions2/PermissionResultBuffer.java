@@ -0,0 +1,219 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.reactivex.Observable;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+
+/**
+ * 权限申请结果的环形缓冲区，保存最近的N个结果，新的订阅者先收到缓存的结果，再继续收到之后的结果
+ * 写入不加锁，每个结果分配一个递增的序号，按序号放入固定大小的数组，旧的结果被直接覆盖，内存占用不会增长
+ *
+ * @author wally
+ */
+final class PermissionResultBuffer {
+    /**
+     * 保存的结果，下标为序号对容量取模
+     */
+    private final AtomicReferenceArray<Entry> mEntries;
+    /**
+     * 容量减一，容量是2的幂，取模可以用位运算
+     */
+    private final int mMask;
+    /**
+     * 下一个结果的序号
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+    /**
+     * 实时的写入通知，只用来触发订阅者读取缓冲区，订阅者的发送计数已经保证了顺序和串行，不需要序列化
+     * 可能在多个线程同时发送，不会结束
+     */
+    private final Subject<Entry> mLive = PublishSubject.create();
+
+    /**
+     * @param capacity 保存的结果数量，向上取整为2的幂
+     */
+    PermissionResultBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mEntries = new AtomicReferenceArray<>(size);
+        mMask = size - 1;
+    }
+
+    /**
+     * 写入一个结果，覆盖最早的结果，并发送给当前的订阅者
+     *
+     * @param permission 申请结果
+     */
+    void add(@NonNull Permission permission) {
+        publish(reserve(), permission);
+    }
+
+    /**
+     * 分配下一个结果的序号，写入前订阅者会在这个序号停下等待
+     */
+    long reserve() {
+        return mSequence.getAndIncrement();
+    }
+
+    /**
+     * 写入已经分配了序号的结果，并通知当前的订阅者
+     *
+     * @param sequence   {@link #reserve()}分配的序号
+     * @param permission 申请结果
+     */
+    void publish(long sequence, @NonNull Permission permission) {
+        Entry entry = new Entry(sequence, permission);
+        //先写入缓冲区再通知，订阅者收到通知时一定能读到
+        mEntries.set((int) (sequence & mMask), entry);
+        mLive.onNext(entry);
+    }
+
+    /**
+     * 容量
+     */
+    int capacity() {
+        return mEntries.length();
+    }
+
+    /**
+     * 热数据源，订阅时先发送缓冲区中还保存的结果，之后继续发送新的结果，不会结束
+     */
+    @NonNull
+    Observable<Permission> observe() {
+        return new ResultObservable();
+    }
+
+    /**
+     * 缓冲区中的一个结果
+     */
+    private static final class Entry {
+        final long sequence;
+        final Permission permission;
+
+        Entry(long sequence, Permission permission) {
+            this.sequence = sequence;
+            this.permission = permission;
+        }
+    }
+
+    private final class ResultObservable extends Observable<Permission> {
+        @Override
+        protected void subscribeActual(Observer<? super Permission> observer) {
+            ResultObserver parent = new ResultObserver(observer, Math.max(0, mSequence.get() - mEntries.length()));
+            observer.onSubscribe(parent);
+            //先订阅实时通知，再追赶缓冲区，两者之间写入的结果不会丢失
+            mLive.subscribe(parent);
+            parent.drain();
+        }
+    }
+
+    /**
+     * 按序号从缓冲区读取结果的订阅者，实时结果只用来通知有新的写入
+     * 同一时间只有一个线程发送，不持有锁调用下游
+     */
+    private final class ResultObserver implements Observer<Entry>, Disposable {
+        private final Observer<? super Permission> mDownstream;
+        private volatile Disposable mUpstream;
+        private volatile boolean mDisposed;
+        /**
+         * 发送中的线程数加上期间到达的通知数，为0时才可以开始发送
+         */
+        private final AtomicInteger mWip = new AtomicInteger();
+        /**
+         * 下一个要发送的序号，只在发送的线程中读写
+         */
+        private long mNext;
+
+        ResultObserver(Observer<? super Permission> downstream, long next) {
+            mDownstream = downstream;
+            mNext = next;
+        }
+
+        /**
+         * 按序号发送缓冲区中的结果，直到追上最新的序号
+         * 序号已经分配但还没有写入时停下等待，写入后的通知会继续发送，后面的结果不会越过它
+         */
+        void drain() {
+            if (mWip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                long next = mNext;
+                while (!mDisposed) {
+                    long end = mSequence.get();
+                    if (next >= end) {
+                        break;
+                    }
+                    Entry entry = mEntries.get((int) (next & mMask));
+                    if (entry == null || entry.sequence < next) {
+                        //序号已经分配但还没有写入
+                        break;
+                    }
+                    if (entry.sequence == next) {
+                        mDownstream.onNext(entry.permission);
+                        next++;
+                    } else {
+                        //被新的结果覆盖说明已经落后超过容量，跳到缓冲区中最早的位置
+                        next = Math.max(next + 1, end - mEntries.length());
+                    }
+                }
+                mNext = next;
+                missed = mWip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void onSubscribe(Disposable d) {
+            mUpstream = d;
+            if (mDisposed) {
+                d.dispose();
+            }
+        }
+
+        @Override
+        public void onNext(Entry entry) {
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            mDownstream.onError(e);
+        }
+
+        @Override
+        public void onComplete() {
+            mDownstream.onComplete();
+        }
+
+        @Override
+        public void dispose() {
+            mDisposed = true;
+            Disposable upstream = mUpstream;
+            if (upstream != null) {
+                upstream.dispose();
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return mDisposed;
+        }
+    }
+}
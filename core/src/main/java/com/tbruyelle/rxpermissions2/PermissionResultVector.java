@@ -0,0 +1,224 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Observer;
+import io.reactivex.Single;
+import io.reactivex.SingleObserver;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+import io.reactivex.exceptions.Exceptions;
+import io.reactivex.functions.Function;
+
+/**
+ * 一次权限申请的结果向量，下标和申请的权限一一对应
+ * 已经有结果的权限（已允许、已撤销）直接保存结果，需要弹框申请的权限保存结果数据源存根
+ *
+ * @author wally
+ */
+final class PermissionResultVector {
+    /**
+     * 申请的权限
+     */
+    private final String[] mPermissions;
+    /**
+     * 已经得到的结果
+     */
+    private final Permission[] mResults;
+    /**
+     * 等待申请结果的数据源
+     */
+    private final Observable<Permission>[] mPending;
+    /**
+     * 等待申请结果的数量
+     */
+    private int mPendingCount;
+    /**
+     * 已经得到结果的数量
+     */
+    private int mResultCount;
+
+    PermissionResultVector(@NonNull String[] permissions) {
+        mPermissions = permissions;
+        mResults = new Permission[permissions.length];
+        @SuppressWarnings("unchecked")
+        Observable<Permission>[] pending = (Observable<Permission>[]) new Observable<?>[permissions.length];
+        mPending = pending;
+    }
+
+    /**
+     * 保存已经得到的结果
+     */
+    void setResult(int index, @NonNull Permission permission) {
+        mResults[index] = permission;
+        mResultCount++;
+    }
+
+    /**
+     * 保存等待申请结果的数据源
+     */
+    void setPending(int index, @NonNull Observable<Permission> pending) {
+        mPending[index] = pending;
+        mPendingCount++;
+    }
+
+    /**
+     * 申请的权限
+     */
+    String[] permissions() {
+        return mPermissions;
+    }
+
+    /**
+     * 该位置是否已经有结果或者结果数据源
+     */
+    boolean isResolved(int index) {
+        return mResults[index] != null || mPending[index] != null;
+    }
+
+    /**
+     * 是否所有位置都已经有结果或者结果数据源
+     */
+    boolean isComplete() {
+        return mResultCount + mPendingCount == mPermissions.length;
+    }
+
+    /**
+     * 是否有权限需要等待申请结果
+     */
+    boolean hasPending() {
+        return mPendingCount > 0;
+    }
+
+    /**
+     * 按申请顺序逐个发送每个权限的结果
+     * 订阅时同时订阅所有存根，取消订阅时每个存根都能知道订阅者已经离开，排队中的申请可以及时撤回
+     */
+    Observable<Permission> toObservable() {
+        if (mPendingCount == 0) {
+            return Observable.fromArray(mResults);
+        }
+        @SuppressWarnings("unchecked")
+        ObservableSource<Permission>[] sources = (ObservableSource<Permission>[]) new ObservableSource<?>[mResults.length];
+        for (int i = 0; i < mResults.length; i++) {
+            sources[i] = mPending[i] != null ? mPending[i] : Observable.just(mResults[i]);
+        }
+        return Observable.concatArrayEager(sources);
+    }
+
+    /**
+     * 所有权限都有结果后，将整个结果向量合并为一个结果发送，不需要中间缓冲
+     *
+     * @param combiner 合并函数
+     */
+    <R> Single<R> combine(@NonNull Function<Permission[], R> combiner) {
+        return new CombineSingle<>(this, combiner);
+    }
+
+    /**
+     * 合并结果的Single，每次订阅都使用自己的结果副本
+     */
+    private static final class CombineSingle<R> extends Single<R> {
+        private final PermissionResultVector mVector;
+        private final Function<Permission[], R> mCombiner;
+
+        CombineSingle(PermissionResultVector vector, Function<Permission[], R> combiner) {
+            mVector = vector;
+            mCombiner = combiner;
+        }
+
+        @Override
+        protected void subscribeActual(SingleObserver<? super R> observer) {
+            final Permission[] results = mVector.mResults.clone();
+            //所有权限都已经有结果了，直接合并发送
+            if (mVector.mPendingCount == 0) {
+                observer.onSubscribe(Disposables.empty());
+                emit(observer, results);
+                return;
+            }
+            CompositeDisposable disposables = new CompositeDisposable();
+            observer.onSubscribe(disposables);
+            AtomicInteger remaining = new AtomicInteger(mVector.mPendingCount);
+            for (int i = 0; i < results.length; i++) {
+                Observable<Permission> pending = mVector.mPending[i];
+                if (pending != null) {
+                    pending.subscribe(new SlotObserver<>(this, observer, disposables, remaining, results, i));
+                }
+            }
+        }
+
+        /**
+         * 合并并发送结果
+         */
+        void emit(SingleObserver<? super R> observer, Permission[] results) {
+            for (int i = 0; i < results.length; i++) {
+                //没有收到结果的权限当作拒绝
+                if (results[i] == null) {
+                    results[i] = Permission.of(mVector.mPermissions[i], false, false);
+                }
+            }
+            R value;
+            try {
+                value = mCombiner.apply(results);
+            } catch (Throwable e) {
+                Exceptions.throwIfFatal(e);
+                observer.onError(e);
+                return;
+            }
+            observer.onSuccess(value);
+        }
+    }
+
+    /**
+     * 接收单个权限的申请结果，写入结果向量对应的位置，最后一个结果到达时合并发送
+     */
+    private static final class SlotObserver<R> implements Observer<Permission> {
+        private final CombineSingle<R> mParent;
+        private final SingleObserver<? super R> mDownstream;
+        private final CompositeDisposable mDisposables;
+        private final AtomicInteger mRemaining;
+        private final Permission[] mResults;
+        private final int mIndex;
+
+        SlotObserver(CombineSingle<R> parent, SingleObserver<? super R> downstream, CompositeDisposable disposables,
+                     AtomicInteger remaining, Permission[] results, int index) {
+            mParent = parent;
+            mDownstream = downstream;
+            mDisposables = disposables;
+            mRemaining = remaining;
+            mResults = results;
+            mIndex = index;
+        }
+
+        @Override
+        public void onSubscribe(Disposable d) {
+            mDisposables.add(d);
+        }
+
+        @Override
+        public void onNext(Permission permission) {
+            mResults[mIndex] = permission;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            if (!mDisposables.isDisposed()) {
+                mDisposables.dispose();
+                mDownstream.onError(e);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (mRemaining.decrementAndGet() == 0 && !mDisposables.isDisposed()) {
+                mDisposables.dispose();
+                mParent.emit(mDownstream, mResults);
+            }
+        }
+    }
+}
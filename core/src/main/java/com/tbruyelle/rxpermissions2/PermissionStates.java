@@ -0,0 +1,176 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 一组权限的允许和说明状态，一次检查得到所有权限的状态，不需要每个权限单独查询
+ * 下标和申请计划中的权限一一对应，两种状态分别用位图保存
+ *
+ * @author wally
+ */
+public final class PermissionStates {
+    /**
+     * 权限，按申请计划的顺序
+     */
+    private final String[] mPermissions;
+    /**
+     * 权限是否允许的位图
+     */
+    private final long[] mGranted;
+    /**
+     * 权限是否需要显示说明的位图，已经允许的权限不需要说明
+     */
+    private final long[] mRationale;
+
+    PermissionStates(@NonNull String[] permissions) {
+        mPermissions = permissions;
+        mGranted = new long[(permissions.length + 63) >>> 6];
+        mRationale = new long[mGranted.length];
+    }
+
+    /**
+     * 标记权限已经允许
+     */
+    void setGranted(int index) {
+        mGranted[index >>> 6] |= 1L << index;
+    }
+
+    /**
+     * 标记权限需要显示说明
+     */
+    void setRationale(int index) {
+        mRationale[index >>> 6] |= 1L << index;
+    }
+
+    /**
+     * 权限数量
+     */
+    public int size() {
+        return mPermissions.length;
+    }
+
+    /**
+     * 获取权限名
+     *
+     * @param index 位置
+     */
+    @NonNull
+    public String getPermission(int index) {
+        return mPermissions[index];
+    }
+
+    /**
+     * 权限是否允许
+     *
+     * @param index 位置
+     */
+    public boolean isGranted(int index) {
+        return (mGranted[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * 权限是否允许，不在这组中的权限返回false
+     *
+     * @param permission 权限
+     */
+    public boolean isGranted(@NonNull String permission) {
+        int index = indexOf(permission);
+        return index >= 0 && isGranted(index);
+    }
+
+    /**
+     * 权限是否需要显示说明
+     *
+     * @param index 位置
+     */
+    public boolean shouldShowRequestPermissionRationale(int index) {
+        return (mRationale[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * 权限是否需要显示说明，不在这组中的权限返回false
+     *
+     * @param permission 权限
+     */
+    public boolean shouldShowRequestPermissionRationale(@NonNull String permission) {
+        int index = indexOf(permission);
+        return index >= 0 && shouldShowRequestPermissionRationale(index);
+    }
+
+    /**
+     * 是否所有权限都已经允许
+     */
+    public boolean isAllGranted() {
+        return getGrantedCount() == mPermissions.length;
+    }
+
+    /**
+     * 已经允许的权限数量
+     */
+    public int getGrantedCount() {
+        int count = 0;
+        for (long bits : mGranted) {
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+    /**
+     * 是否有权限需要显示说明
+     */
+    public boolean shouldShowAnyRationale() {
+        for (long bits : mRationale) {
+            if (bits != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 是否每个没有允许的权限都需要显示说明，也就是没有权限被勾选了不再提示
+     */
+    public boolean shouldShowAllRationale() {
+        for (int i = 0; i < mGranted.length; i++) {
+            //没有允许也不需要说明的权限
+            long denied = ~mGranted[i];
+            if (i == mGranted.length - 1 && (mPermissions.length & 63) != 0) {
+                denied &= (1L << mPermissions.length) - 1;
+            }
+            if ((denied & ~mRationale[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查找权限的位置
+     *
+     * @return 没有找到返回-1
+     */
+    private int indexOf(String permission) {
+        for (int i = 0; i < mPermissions.length; i++) {
+            if (mPermissions[i].equals(permission)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("PermissionStates{");
+        for (int i = 0; i < mPermissions.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(mPermissions[i])
+                    .append("=").append(isGranted(i) ? "granted" : "denied");
+            if (shouldShowRequestPermissionRationale(i)) {
+                builder.append("(rationale)");
+            }
+        }
+        return builder.append('}').toString();
+    }
+}
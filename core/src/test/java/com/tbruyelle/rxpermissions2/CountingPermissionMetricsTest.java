@@ -0,0 +1,58 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CountingPermissionMetricsTest {
+
+    @Test
+    public void onResult_countsPerPermission() {
+        CountingPermissionMetrics metrics = new CountingPermissionMetrics();
+
+        metrics.onResult("p1", true, false);
+        metrics.onResult("p1", false, true);
+        metrics.onResult("p2", false, false);
+
+        assertEquals(1, metrics.getGrantedCount());
+        assertEquals(2, metrics.getDeniedCount());
+        assertEquals(1, metrics.getRationaleCount());
+        assertEquals(1, metrics.getGrantedCount("p1"));
+        assertEquals(1, metrics.getDeniedCount("p1"));
+        assertEquals(1, metrics.getRationaleCount("p1"));
+        assertEquals(0, metrics.getGrantedCount("p3"));
+    }
+
+    @Test
+    public void latencies() {
+        CountingPermissionMetrics metrics = new CountingPermissionMetrics();
+
+        metrics.onCheck("p1", 10);
+        metrics.onCheck("p2", 20);
+        metrics.onDialogResult(42, 2, 1000);
+        metrics.onFragmentAttached(5);
+        metrics.onQueueWait(PermissionRequest.PRIORITY_BACKGROUND, 300);
+        metrics.onQueueWait(PermissionRequest.PRIORITY_USER_INITIATED, 100);
+
+        assertEquals(2, metrics.getCheckCount());
+        assertEquals(30, metrics.getCheckNanos());
+        assertEquals(1, metrics.getDialogCount());
+        assertEquals(1000, metrics.getDialogNanos());
+        assertEquals(1, metrics.getFragmentAttachCount());
+        assertEquals(5, metrics.getFragmentAttachNanos());
+        assertEquals(2, metrics.getQueuedCount());
+        assertEquals(400, metrics.getQueueWaitNanos());
+        assertEquals(300, metrics.getMaxQueueWaitNanos());
+    }
+
+    @Test
+    public void onPendingChanged_keepsMax() {
+        CountingPermissionMetrics metrics = new CountingPermissionMetrics();
+
+        metrics.onPendingChanged(3);
+        metrics.onPendingChanged(1);
+
+        assertEquals(1, metrics.getPendingCount());
+        assertEquals(3, metrics.getMaxPendingCount());
+    }
+}
@@ -0,0 +1,215 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PendingRequestRegistryTest {
+    private static final int THREADS = 8;
+    private static final int REQUESTS = 10000;
+    private static final int PERMISSIONS = 16;
+
+    @Test
+    public void getOrCreate_createsOnce() {
+        PendingRequestRegistry registry = new PendingRequestRegistry();
+        List<String> created = new ArrayList<>();
+
+        PublishSubject<Permission> first = registry.getOrCreate("p", created);
+        PublishSubject<Permission> second = registry.getOrCreate("p", created);
+
+        assertSame(first, second);
+        assertEquals(1, created.size());
+        assertTrue(registry.contains("p"));
+    }
+
+    @Test
+    public void remove() {
+        PendingRequestRegistry registry = new PendingRequestRegistry();
+        PublishSubject<Permission> subject = registry.getOrCreate("p", new ArrayList<String>());
+
+        assertSame(subject, registry.remove("p"));
+        assertNull(registry.remove("p"));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void requestCodePool_fitsSavedRequestCode() {
+        //保存状态时请求码只占8位
+        assertTrue(PendingRequestRegistry.FIRST_REQUEST_CODE + PendingRequestRegistry.REQUEST_CODE_POOL_SIZE <= 256);
+        assertEquals(Long.SIZE - 8, PermissionEngine.MAX_SAVED_PERMISSIONS);
+    }
+
+    @Test
+    public void beginBatch_distinctRequestCodes() {
+        PendingRequestRegistry registry = new PendingRequestRegistry();
+        List<String> created = new ArrayList<>();
+        PublishSubject<Permission> p1 = registry.getOrCreate("p1", created);
+        PermissionBatch first = registry.beginBatch(new String[]{"p1"});
+        PublishSubject<Permission> p2 = registry.getOrCreate("p2", created);
+        PermissionBatch second = registry.beginBatch(new String[]{"p2"});
+
+        assertNotEquals(first.requestCode, second.requestCode);
+        assertTrue(first.requestCode < 256 && second.requestCode < 256);
+        assertSame(p1, first.subjects[0]);
+        assertSame(p2, second.subjects[0]);
+        assertEquals(first.requestCode, registry.findRequestCode("p1"));
+        assertSame(second, registry.endBatch(second.requestCode));
+        assertSame(first, registry.endBatch(first.requestCode));
+        assertNull(registry.endBatch(first.requestCode));
+        assertEquals(-1, registry.findRequestCode("p1"));
+    }
+
+    @Test
+    public void endBatch_unknownRequestCode() {
+        PendingRequestRegistry registry = new PendingRequestRegistry();
+
+        assertNull(registry.endBatch(0));
+        assertNull(registry.endBatch(PendingRequestRegistry.FIRST_REQUEST_CODE));
+        assertNull(registry.endBatch(PendingRequestRegistry.FIRST_REQUEST_CODE + PendingRequestRegistry.REQUEST_CODE_POOL_SIZE));
+    }
+
+    @Test
+    public void beginBatch_poolExhausted() throws InterruptedException {
+        PendingRequestRegistry registry = new PendingRequestRegistry();
+        PermissionBatch oldest = registry.beginBatch(new String[]{"p0"});
+        Thread.sleep(1);
+        for (int i = 1; i < PendingRequestRegistry.REQUEST_CODE_POOL_SIZE; i++) {
+            registry.beginBatch(new String[]{"p" + i});
+        }
+
+        assertNull(registry.beginBatch(new String[]{"p"}));
+        assertSame(oldest, registry.pollOldest());
+        PermissionBatch batch = registry.beginBatch(new String[]{"p"});
+
+        assertEquals(oldest.requestCode, batch.requestCode);
+        assertSame(batch, registry.endBatch(batch.requestCode));
+    }
+
+    @Test
+    public void pollExpired_onlyOlderBatches() {
+        PendingRequestRegistry registry = new PendingRequestRegistry();
+        PublishSubject<Permission> subject = registry.getOrCreate("p1", new ArrayList<String>());
+        PermissionBatch batch = registry.beginBatch(new String[]{"p1"});
+
+        assertTrue(registry.isRequested("p1", subject));
+        assertFalse(registry.isRequested("p1", PublishSubject.<Permission>create()));
+        assertNull(registry.pollExpired(batch.startNanos));
+        assertSame(batch, registry.pollExpired(batch.startNanos + 1));
+        assertNull(registry.pollExpired(batch.startNanos + 1));
+        assertFalse(registry.isRequested("p1", subject));
+    }
+
+    @Test
+    public void remove_onlySameSubject() {
+        PendingRequestRegistry registry = new PendingRequestRegistry();
+        PublishSubject<Permission> subject = registry.getOrCreate("p", new ArrayList<String>());
+
+        assertFalse(registry.remove("p", PublishSubject.<Permission>create()));
+        assertTrue(registry.remove("p", subject));
+    }
+
+    @Test
+    public void getOrCreate_concurrent() throws Exception {
+        final PendingRequestRegistry registry = new PendingRequestRegistry();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger createdCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<PublishSubject<Permission>>>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(new Callable<List<PublishSubject<Permission>>>() {
+                @Override
+                public List<PublishSubject<Permission>> call() throws Exception {
+                    start.await();
+                    List<PublishSubject<Permission>> subjects = new ArrayList<>(PERMISSIONS);
+                    for (int i = 0; i < PERMISSIONS; i++) {
+                        subjects.add(null);
+                    }
+                    for (int i = 0; i < REQUESTS / THREADS; i++) {
+                        List<String> created = new ArrayList<>(1);
+                        int index = i % PERMISSIONS;
+                        PublishSubject<Permission> subject = registry.getOrCreate("p" + index, created);
+                        createdCount.addAndGet(created.size());
+                        if (subjects.get(index) == null) {
+                            subjects.set(index, subject);
+                        }
+                        assertSame(subjects.get(index), subject);
+                    }
+                    return subjects;
+                }
+            }));
+        }
+        start.countDown();
+
+        List<PublishSubject<Permission>> expected = null;
+        for (Future<List<PublishSubject<Permission>>> future : futures) {
+            List<PublishSubject<Permission>> subjects = future.get(10, TimeUnit.SECONDS);
+            if (expected == null) {
+                expected = subjects;
+            }
+            for (int i = 0; i < PERMISSIONS; i++) {
+                assertSame(expected.get(i), subjects.get(i));
+            }
+        }
+        executor.shutdown();
+        assertEquals(PERMISSIONS, createdCount.get());
+        assertEquals(PERMISSIONS, registry.size());
+    }
+
+    @Test
+    public void getOrCreate_concurrentWithRemove() throws Exception {
+        final PendingRequestRegistry registry = new PendingRequestRegistry();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger createdCount = new AtomicInteger();
+        final AtomicInteger removedCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final boolean remover = t == 0;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < REQUESTS / THREADS; i++) {
+                        String permission = "p" + (i % PERMISSIONS);
+                        if (remover) {
+                            //模拟主线程收到申请结果
+                            if (registry.remove(permission) != null) {
+                                removedCount.incrementAndGet();
+                            }
+                        } else {
+                            List<String> created = new ArrayList<>(1);
+                            assertNotNull(registry.getOrCreate(permission, created));
+                            createdCount.addAndGet(created.size());
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertEquals(createdCount.get(), removedCount.get() + registry.size());
+    }
+}
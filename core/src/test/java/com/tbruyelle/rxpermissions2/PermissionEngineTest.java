@@ -0,0 +1,403 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.reactivex.functions.Function;
+import io.reactivex.observers.TestObserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionEngineTest {
+    private static final int DENIED = -1;
+
+    private final Set<String> mGranted = new HashSet<>();
+    private final List<String[]> mRequested = new ArrayList<>();
+    private PermissionEngine mEngine;
+    private PermissionBackend mBackend;
+
+    @Before
+    public void setup() {
+        mEngine = new PermissionEngine();
+        mBackend = new PermissionBackend() {
+            @Override
+            public boolean isGranted(String permission) {
+                return mGranted.contains(permission);
+            }
+
+            @Override
+            public boolean isRevoked(String permission) {
+                return "revoked".equals(permission);
+            }
+
+            @Override
+            public void requestPermissions(String[] permissions) {
+                mRequested.add(permissions);
+            }
+        };
+    }
+
+    private PermissionResultVector request(String... permissions) {
+        PermissionResultVector results = PermissionEngine.check(PermissionRequest.of(permissions), mBackend, null, null, null);
+        if (!results.isComplete()) {
+            mEngine.requestPending(results, mBackend);
+        }
+        return results;
+    }
+
+    /**
+     * 模拟平台收到上一次申请的结果
+     */
+    private void answerLast(int... grantResults) {
+        String[] permissions = mRequested.get(mRequested.size() - 1);
+        int requestCode = mEngine.beginRequest(permissions);
+        mEngine.onRequestPermissionsResult(requestCode, permissions, grantResults, new boolean[permissions.length]);
+    }
+
+    @Test
+    public void check_grantedAndRevokedWithoutRequest() {
+        mGranted.add("granted");
+        TestObserver<Permission> sub = new TestObserver<>();
+
+        PermissionResultVector results = PermissionEngine.check(PermissionRequest.of("granted", "revoked"), mBackend, null, null, null);
+        results.toObservable().subscribe(sub);
+
+        assertTrue(results.isComplete());
+        sub.assertValues(new Permission("granted", true), new Permission("revoked", false));
+        assertEquals(0, mRequested.size());
+    }
+
+    @Test
+    public void request_onlyUnrequestedPermissions() {
+        mGranted.add("granted");
+        TestObserver<Permission> sub = new TestObserver<>();
+
+        request("granted", "p1").toObservable().subscribe(sub);
+        answerLast(PermissionEngine.PERMISSION_GRANTED);
+
+        assertArrayEquals(new String[]{"p1"}, mRequested.get(0));
+        sub.assertValues(new Permission("granted", true), new Permission("p1", true));
+        assertEquals(0, mEngine.getPendingCount());
+    }
+
+    @Test
+    public void request_alreadyPendingNotRequestedTwice() {
+        TestObserver<Permission> first = new TestObserver<>();
+        TestObserver<Permission> second = new TestObserver<>();
+
+        request("p1").toObservable().subscribe(first);
+        request("p1").toObservable().subscribe(second);
+        assertTrue(mEngine.isPending(PermissionRequest.of("p1")));
+        answerLast(DENIED);
+
+        assertEquals(1, mRequested.size());
+        first.assertValue(new Permission("p1", false));
+        second.assertValue(new Permission("p1", false));
+        assertFalse(mEngine.isPending(PermissionRequest.of("p1")));
+    }
+
+    @Test
+    public void onRequestPermissionsResult_overlappingBatches() {
+        TestObserver<Permission> first = new TestObserver<>();
+        TestObserver<Permission> second = new TestObserver<>();
+        request("p1").toObservable().subscribe(first);
+        int firstCode = mEngine.beginRequest(mRequested.get(0));
+        request("p2").toObservable().subscribe(second);
+        int secondCode = mEngine.beginRequest(mRequested.get(1));
+
+        mEngine.onRequestPermissionsResult(secondCode, new String[]{"p2"}, new int[]{PermissionEngine.PERMISSION_GRANTED}, new boolean[1]);
+        first.assertNoValues();
+        mEngine.onRequestPermissionsResult(firstCode, new String[]{"p1"}, new int[]{DENIED}, new boolean[]{true});
+
+        first.assertValue(new Permission("p1", false, true));
+        second.assertValue(new Permission("p2", true));
+    }
+
+    @Test
+    public void onRequestPermissionsResult_cancelledCountsAsDenied() {
+        TestObserver<Boolean> sub = new TestObserver<>();
+        request("p1", "p2").combine(new Function<Permission[], Boolean>() {
+            @Override
+            public Boolean apply(Permission[] permissions) {
+                return permissions[0].granted || permissions[1].granted;
+            }
+        }).subscribe(sub);
+        int requestCode = mEngine.beginRequest(mRequested.get(0));
+
+        mEngine.onRequestPermissionsResult(requestCode, new String[0], new int[0], new boolean[0]);
+
+        sub.assertValue(false);
+        assertEquals(0, mEngine.getPendingCount());
+    }
+
+    @Test
+    public void onRequestPermissionsResult_byNameGrantedHasNoRationale() {
+        CountingPermissionMetrics metrics = new CountingPermissionMetrics();
+        mEngine.setMetrics(metrics);
+        TestObserver<Permission> sub = new TestObserver<>();
+        request("p1").toObservable().subscribe(sub);
+
+        //未知的请求码按权限名分发，允许的权限即使系统返回需要说明也不计入
+        mEngine.onRequestPermissionsResult(-1, new String[]{"p1"}, new int[]{PermissionEngine.PERMISSION_GRANTED}, new boolean[]{true});
+
+        sub.assertValue(new Permission("p1", true));
+        assertEquals(0, metrics.getRationaleCount());
+    }
+
+    @Test
+    public void denialHistory_skipsPermanentlyDenied() {
+        final Set<String> permanent = new HashSet<>();
+        PermissionDenialHistory history = new PermissionDenialHistory() {
+            @Override
+            public boolean shouldSkipRequest(String permission) {
+                return permanent.contains(permission);
+            }
+
+            @Override
+            public void onResult(Permission permission) {
+                if (!permission.granted && !permission.shouldShowRequestPermissionRationale) {
+                    permanent.add(permission.name);
+                } else {
+                    permanent.remove(permission.name);
+                }
+            }
+        };
+        mEngine.setDenialHistory(history);
+
+        PermissionResultVector results = PermissionEngine.check(PermissionRequest.of("p1"), mBackend, history, null, null);
+        mEngine.requestPending(results, mBackend);
+        answerLast(DENIED);
+        assertTrue(permanent.contains("p1"));
+
+        TestObserver<Permission> sub = new TestObserver<>();
+        results = PermissionEngine.check(PermissionRequest.of("p1"), mBackend, history, null, null);
+        results.toObservable().subscribe(sub);
+
+        assertTrue(results.isComplete());
+        sub.assertValue(new Permission("p1", false, false));
+        assertEquals(1, mRequested.size());
+    }
+
+    @Test
+    public void dispose_keepsRequestedJoinable() {
+        TestObserver<Permission> first = new TestObserver<>();
+        TestObserver<Permission> second = new TestObserver<>();
+        request("p1").toObservable().subscribe(first);
+        int requestCode = mEngine.beginRequest(mRequested.get(0));
+        request("p1").toObservable().subscribe(second);
+
+        first.dispose();
+        second.dispose();
+        assertEquals(1, mEngine.getPendingCount());
+        assertEquals(0, mEngine.getEvictedCount());
+
+        //屏幕旋转后再次申请，加入正在显示的申请框，不会再次弹框
+        TestObserver<Permission> third = new TestObserver<>();
+        request("p1").toObservable().subscribe(third);
+        assertEquals(1, mRequested.size());
+        mEngine.onRequestPermissionsResult(requestCode, new String[]{"p1"}, new int[]{PermissionEngine.PERMISSION_GRANTED}, new boolean[1]);
+        third.assertValue(new Permission("p1", true));
+        assertEquals(0, mEngine.getPendingCount());
+    }
+
+    @Test
+    public void dispose_evictsExpiredRequest() throws InterruptedException {
+        mEngine.setPendingTimeout(1);
+        TestObserver<Permission> sub = new TestObserver<>();
+        request("p1").toObservable().subscribe(sub);
+        mEngine.beginRequest(mRequested.get(0));
+        Thread.sleep(5);
+
+        sub.dispose();
+
+        assertEquals(0, mEngine.getPendingCount());
+        assertEquals(1, mEngine.getEvictedCount());
+    }
+
+    @Test
+    public void dispose_withdrawsQueuedRequest() {
+        TestObserver<Permission> sub = new TestObserver<>();
+        request("p1", "p2").toObservable().subscribe(sub);
+        assertEquals(2, mEngine.getPendingCount());
+
+        sub.dispose();
+
+        assertEquals(0, mEngine.getPendingCount());
+        assertEquals(2, mEngine.getEvictedCount());
+        assertEquals(0, mEngine.filterUnrequested(mRequested.get(0)).length);
+    }
+
+    @Test
+    public void dispose_withdrawnBeforeJoinerSubscribes() {
+        PermissionResultVector first = request("p1");
+        //第二个申请拿到了同一个存根，还没有订阅
+        PermissionResultVector second = request("p1");
+        TestObserver<Permission> firstSub = new TestObserver<>();
+        first.toObservable().subscribe(firstSub);
+        firstSub.dispose();
+        assertEquals(0, mEngine.getPendingCount());
+
+        TestObserver<Permission> secondSub = new TestObserver<>();
+        second.toObservable().subscribe(secondSub);
+        secondSub.assertNotComplete();
+        assertEquals(2, mRequested.size());
+        answerLast(PermissionEngine.PERMISSION_GRANTED);
+
+        secondSub.assertValue(new Permission("p1", true));
+        secondSub.assertComplete();
+    }
+
+    @Test
+    public void filterUnrequested_skipsRequestedAndWithdrawn() {
+        TestObserver<Permission> withdrawn = new TestObserver<>();
+        request("p1").toObservable().subscribe(new TestObserver<Permission>());
+        request("p2").toObservable().subscribe(withdrawn);
+        request("p3").toObservable().subscribe(new TestObserver<Permission>());
+        mEngine.beginRequest(mRequested.get(0));
+        withdrawn.dispose();
+
+        assertArrayEquals(new String[]{"p3"}, mEngine.filterUnrequested(new String[]{"p1", "p2", "p3"}));
+        String[] unrequested = {"p3"};
+        assertSame(unrequested, mEngine.filterUnrequested(unrequested));
+    }
+
+    @Test
+    public void pendingTimeout_evictsExpiredRequest() throws InterruptedException {
+        mEngine.setPendingTimeout(1);
+        TestObserver<Permission> sub = new TestObserver<>();
+        request("p1").toObservable().subscribe(sub);
+        mEngine.beginRequest(mRequested.get(0));
+        Thread.sleep(5);
+
+        request("p2");
+
+        sub.assertValue(new Permission("p1", false, false));
+        sub.assertComplete();
+        assertEquals(1, mEngine.getPendingCount());
+        assertEquals(1, mEngine.getEvictedCount());
+    }
+
+    @Test
+    public void beginRequest_poolExhaustedDeniesOldest() throws InterruptedException {
+        TestObserver<Permission> oldest = new TestObserver<>();
+        request("p0").toObservable().subscribe(oldest);
+        int oldestCode = mEngine.beginRequest(mRequested.get(0));
+        Thread.sleep(1);
+        for (int i = 1; i < PendingRequestRegistry.REQUEST_CODE_POOL_SIZE; i++) {
+            request("p" + i);
+            mEngine.beginRequest(mRequested.get(i));
+        }
+
+        request("p");
+        int requestCode = mEngine.beginRequest(mRequested.get(mRequested.size() - 1));
+
+        assertEquals(oldestCode, requestCode);
+        oldest.assertValue(new Permission("p0", false, false));
+        oldest.assertComplete();
+        assertEquals(1, mEngine.getEvictedCount());
+        //被挤掉的申请迟到的结果不会发给新的申请
+        TestObserver<Permission> sub = new TestObserver<>();
+        request("p").toObservable().subscribe(sub);
+        mEngine.onRequestPermissionsResult(requestCode, new String[]{"p0"}, new int[]{0}, new boolean[1]);
+        sub.assertNoValues();
+    }
+
+    @Test
+    public void restorePendingRequests_resultWithoutSecondDialog() {
+        request("p1", "p2");
+        int requestCode = mEngine.beginRequest(mRequested.get(0));
+        List<String> names = new ArrayList<>();
+        long[] requests = mEngine.savePendingRequests(names);
+        assertEquals(1, requests.length);
+
+        //模拟进程被回收后重建
+        mEngine = new PermissionEngine();
+        mEngine.restorePendingRequests(names.toArray(new String[names.size()]), requests);
+        TestObserver<Permission> recovered = new TestObserver<>();
+        mEngine.recoveredResults().subscribe(recovered);
+        TestObserver<Permission> sub = new TestObserver<>();
+        request("p2").toObservable().subscribe(sub);
+        mEngine.onRequestPermissionsResult(requestCode, new String[]{"p1", "p2"},
+                new int[]{PermissionEngine.PERMISSION_GRANTED, DENIED}, new boolean[2]);
+
+        assertEquals(1, mRequested.size());
+        sub.assertValue(new Permission("p2", false));
+        recovered.assertValues(new Permission("p1", true), new Permission("p2", false));
+        recovered.assertComplete();
+    }
+
+    @Test
+    public void recoveredResults_emptyWithoutRestore() {
+        TestObserver<Permission> sub = new TestObserver<>();
+
+        mEngine.recoveredResults().subscribe(sub);
+
+        sub.assertNoValues();
+        sub.assertComplete();
+    }
+
+    @Test
+    public void resultBuffer_receivesDialogResults() {
+        PermissionResultBuffer buffer = new PermissionResultBuffer(4);
+        mEngine.setResultBuffer(buffer);
+        mGranted.add("granted");
+
+        request("granted", "p1").toObservable().subscribe(new TestObserver<Permission>());
+        answerLast(DENIED);
+        TestObserver<Permission> sub = new TestObserver<>();
+        buffer.observe().subscribe(sub);
+
+        sub.assertValue(new Permission("p1", false));
+    }
+
+    @Test
+    public void onRequestPermissionsResult_unknownEntryDoesNotStopDispatch() {
+        TestObserver<Permission> sub = new TestObserver<>();
+        request("p1").toObservable().subscribe(sub);
+
+        mEngine.onRequestPermissionsResult(new String[]{"unknown", "p1"},
+                new int[]{PermissionEngine.PERMISSION_GRANTED, PermissionEngine.PERMISSION_GRANTED}, new boolean[2]);
+
+        sub.assertValue(new Permission("p1", true));
+        assertEquals(0, mEngine.getPendingCount());
+    }
+
+    @Test
+    public void onRequestPermissionsResult_allSubjectsReleasedBeforeDelivery() {
+        final List<Integer> pendingSeen = new ArrayList<>();
+        request("p1", "p2").toObservable().subscribe(new TestObserver<Permission>() {
+            @Override
+            public void onNext(Permission permission) {
+                pendingSeen.add(mEngine.getPendingCount());
+            }
+        });
+        int requestCode = mEngine.beginRequest(mRequested.get(0));
+
+        mEngine.onRequestPermissionsResult(requestCode, new String[]{"p1", "p2"},
+                new int[]{PermissionEngine.PERMISSION_GRANTED, DENIED}, new boolean[]{true, true});
+
+        assertEquals(2, pendingSeen.size());
+        assertEquals(0, (int) pendingSeen.get(0));
+    }
+
+    @Test
+    public void onRequestPermissionsResult_grantedWithoutRationale() {
+        TestObserver<Permission> sub = new TestObserver<>();
+        request("p1").toObservable().subscribe(sub);
+        int requestCode = mEngine.beginRequest(mRequested.get(0));
+
+        mEngine.onRequestPermissionsResult(requestCode, new String[]{"p1"},
+                new int[]{PermissionEngine.PERMISSION_GRANTED}, new boolean[]{true});
+
+        sub.assertValue(new Permission("p1", true, false));
+    }
+}
@@ -0,0 +1,133 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+
+public class PermissionPipelineTest {
+
+    private final List<String[]> mRequested = new ArrayList<>();
+    private final List<Integer> mRequestCodes = new ArrayList<>();
+    private PermissionEngine mEngine;
+    private PermissionBackend mBackend;
+    private PermissionPipeline mPipeline;
+
+    @Before
+    public void setup() {
+        mEngine = new PermissionEngine();
+        mBackend = new PermissionBackend() {
+            @Override
+            public boolean isGranted(String permission) {
+                return false;
+            }
+
+            @Override
+            public boolean isRevoked(String permission) {
+                return false;
+            }
+
+            @Override
+            public void requestPermissions(String[] permissions) {
+                mRequested.add(permissions);
+                mRequestCodes.add(mEngine.beginRequest(permissions));
+            }
+        };
+        mPipeline = new PermissionPipeline(new PermissionPipeline.Host() {
+            @Override
+            public PermissionEngine peekEngine() {
+                return mEngine;
+            }
+
+            @Override
+            public PermissionResultVector request(PermissionRequest request) {
+                PermissionResultVector results = PermissionEngine.check(request, mBackend, null, null, null);
+                if (!results.isComplete()) {
+                    mEngine.requestPending(results, mBackend);
+                }
+                return results;
+            }
+        });
+    }
+
+    /**
+     * 模拟第index次系统申请的结果
+     */
+    private void answer(int index, int grantResult) {
+        String[] permissions = mRequested.get(index);
+        int[] grantResults = new int[permissions.length];
+        for (int i = 0; i < grantResults.length; i++) {
+            grantResults[i] = grantResult;
+        }
+        mEngine.onRequestPermissionsResult(mRequestCodes.get(index), permissions, grantResults, new boolean[permissions.length]);
+    }
+
+    /**
+     * 其他界面先申请了p1，这次申请的p1和p2分属两次系统申请
+     */
+    private void requestP1Elsewhere() {
+        Observable.just(PermissionPipeline.TRIGGER)
+                .compose(mPipeline.<Object>ensureEach(PermissionRequest.of("p1")))
+                .subscribe(new TestObserver<Permission>());
+    }
+
+    @Test
+    public void coalesce_triggerBetweenBatchResultsCombined() {
+        requestP1Elsewhere();
+        PublishSubject<Object> trigger = PublishSubject.create();
+        TestObserver<Boolean> sub = new TestObserver<>();
+        trigger.compose(mPipeline.<Object>ensure(PermissionRequest.of("p1", "p2"))).subscribe(sub);
+
+        trigger.onNext(PermissionPipeline.TRIGGER);
+        answer(0, PermissionEngine.PERMISSION_GRANTED);
+        //p1已经有结果，p2还在申请
+        trigger.onNext(PermissionPipeline.TRIGGER);
+        answer(1, PermissionEngine.PERMISSION_GRANTED);
+
+        sub.assertValues(true, true);
+        assertEquals(2, mRequested.size());
+        assertEquals(1, mPipeline.getCoalescedTriggerCount());
+    }
+
+    @Test
+    public void coalesce_triggerBetweenBatchResultsEach() {
+        requestP1Elsewhere();
+        PublishSubject<Object> trigger = PublishSubject.create();
+        TestObserver<Permission> sub = new TestObserver<>();
+        trigger.compose(mPipeline.<Object>ensureEach(PermissionRequest.of("p1", "p2"))).subscribe(sub);
+
+        trigger.onNext(PermissionPipeline.TRIGGER);
+        answer(0, PermissionEngine.PERMISSION_GRANTED);
+        trigger.onNext(PermissionPipeline.TRIGGER);
+        answer(1, -1);
+
+        Permission p1 = new Permission("p1", true);
+        Permission p2 = new Permission("p2", false);
+        sub.assertValues(p1, p1, p2, p2);
+        assertEquals(2, mRequested.size());
+    }
+
+    @Test
+    public void coalesce_triggerAfterResultRequestsAgain() {
+        PublishSubject<Object> trigger = PublishSubject.create();
+        TestObserver<Boolean> sub = new TestObserver<>();
+        trigger.compose(mPipeline.<Object>ensure(PermissionRequest.of("p1"))).subscribe(sub);
+
+        trigger.onNext(PermissionPipeline.TRIGGER);
+        answer(0, PermissionEngine.PERMISSION_GRANTED);
+        //上一次申请已经结束，不再共用它的结果
+        trigger.onNext(PermissionPipeline.TRIGGER);
+        answer(1, -1);
+
+        sub.assertValues(true, false);
+        assertEquals(2, mRequested.size());
+        assertEquals(0, mPipeline.getCoalescedTriggerCount());
+    }
+}
@@ -0,0 +1,57 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionRequestTest {
+
+    @Test
+    public void of_deduplicatesKeepingOrder() {
+        PermissionRequest request = PermissionRequest.of("p2", "p1", "p2");
+
+        assertEquals(2, request.size());
+        assertArrayEquals(new String[]{"p2", "p1"}, request.toArray());
+        assertTrue(request.contains("p1"));
+        assertFalse(request.contains("p3"));
+    }
+
+    @Test
+    public void of_internsNames() {
+        PermissionRequest request = PermissionRequest.of(new String("p1"));
+
+        assertSame("p1", request.get(0));
+    }
+
+    @Test
+    public void equals_ignoresOrder() {
+        PermissionRequest first = PermissionRequest.of("p1", "p2");
+        PermissionRequest second = PermissionRequest.of("p2", "p1", "p1");
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertNotEquals(first, PermissionRequest.of("p1"));
+    }
+
+    @Test
+    public void withPriority_keepsPermissions() {
+        PermissionRequest request = PermissionRequest.of("p1", "p2");
+        PermissionRequest background = request.withPriority(PermissionRequest.PRIORITY_BACKGROUND);
+
+        assertEquals(PermissionRequest.PRIORITY_USER_INITIATED, request.getPriority());
+        assertEquals(PermissionRequest.PRIORITY_BACKGROUND, background.getPriority());
+        assertArrayEquals(request.toArray(), background.toArray());
+        assertNotEquals(request, background);
+        assertSame(request, request.withPriority(PermissionRequest.PRIORITY_USER_INITIATED));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void of_empty() {
+        PermissionRequest.of();
+    }
+}
@@ -0,0 +1,87 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.junit.Test;
+
+import io.reactivex.observers.TestObserver;
+
+import static org.junit.Assert.assertEquals;
+
+public class PermissionResultBufferTest {
+
+    @Test
+    public void capacity_roundedToPowerOfTwo() {
+        assertEquals(1, new PermissionResultBuffer(1).capacity());
+        assertEquals(8, new PermissionResultBuffer(5).capacity());
+        assertEquals(32, new PermissionResultBuffer(32).capacity());
+    }
+
+    @Test
+    public void observe_replaysThenLive() {
+        PermissionResultBuffer buffer = new PermissionResultBuffer(4);
+        buffer.add(new Permission("p1", true));
+        buffer.add(new Permission("p2", false));
+        TestObserver<Permission> sub = new TestObserver<>();
+
+        buffer.observe().subscribe(sub);
+        buffer.add(new Permission("p3", true));
+
+        sub.assertValues(new Permission("p1", true), new Permission("p2", false), new Permission("p3", true));
+        sub.assertNotComplete();
+    }
+
+    @Test
+    public void observe_replaysOnlyLastEntries() {
+        PermissionResultBuffer buffer = new PermissionResultBuffer(2);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(new Permission("p" + i, true));
+        }
+        TestObserver<Permission> sub = new TestObserver<>();
+
+        buffer.observe().subscribe(sub);
+
+        sub.assertValues(new Permission("p3", true), new Permission("p4", true));
+    }
+
+    @Test
+    public void observe_waitsForUnwrittenSequence() {
+        PermissionResultBuffer buffer = new PermissionResultBuffer(4);
+        TestObserver<Permission> sub = new TestObserver<>();
+        buffer.observe().subscribe(sub);
+
+        //第一个写入方分配了序号还没有写入时，第二个写入方先写入
+        long first = buffer.reserve();
+        buffer.add(new Permission("p2", true));
+        sub.assertNoValues();
+        buffer.publish(first, new Permission("p1", true));
+
+        sub.assertValues(new Permission("p1", true), new Permission("p2", true));
+    }
+
+    @Test
+    public void observe_replayWaitsForUnwrittenSequence() {
+        PermissionResultBuffer buffer = new PermissionResultBuffer(4);
+        long first = buffer.reserve();
+        buffer.add(new Permission("p2", true));
+        TestObserver<Permission> sub = new TestObserver<>();
+
+        buffer.observe().subscribe(sub);
+        buffer.add(new Permission("p3", true));
+        sub.assertNoValues();
+        buffer.publish(first, new Permission("p1", true));
+
+        sub.assertValues(new Permission("p1", true), new Permission("p2", true), new Permission("p3", true));
+    }
+
+    @Test
+    public void dispose_stopsDelivery() {
+        PermissionResultBuffer buffer = new PermissionResultBuffer(2);
+        TestObserver<Permission> sub = new TestObserver<>();
+        buffer.observe().subscribe(sub);
+        buffer.add(new Permission("p1", true));
+
+        sub.dispose();
+        buffer.add(new Permission("p2", true));
+
+        sub.assertValue(new Permission("p1", true));
+    }
+}
@@ -0,0 +1,53 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionStatesTest {
+
+    @Test
+    public void grantedAndRationale() {
+        PermissionStates states = new PermissionStates(new String[]{"p1", "p2", "p3"});
+        states.setGranted(0);
+        states.setRationale(1);
+
+        assertEquals(3, states.size());
+        assertTrue(states.isGranted("p1"));
+        assertFalse(states.isGranted("p2"));
+        assertTrue(states.shouldShowRequestPermissionRationale("p2"));
+        assertFalse(states.shouldShowRequestPermissionRationale(2));
+        assertFalse(states.isGranted("unknown"));
+        assertEquals(1, states.getGrantedCount());
+        assertTrue(states.shouldShowAnyRationale());
+        assertFalse(states.shouldShowAllRationale());
+    }
+
+    @Test
+    public void shouldShowAllRationale_ignoresGranted() {
+        PermissionStates states = new PermissionStates(new String[]{"p1", "p2"});
+        states.setGranted(0);
+        states.setRationale(1);
+
+        assertTrue(states.shouldShowAllRationale());
+        assertFalse(states.isAllGranted());
+    }
+
+    @Test
+    public void manyPermissions() {
+        String[] permissions = new String[70];
+        for (int i = 0; i < permissions.length; i++) {
+            permissions[i] = "p" + i;
+        }
+        PermissionStates states = new PermissionStates(permissions);
+        for (int i = 0; i < permissions.length; i++) {
+            states.setGranted(i);
+        }
+
+        assertTrue(states.isAllGranted());
+        assertTrue(states.shouldShowAllRationale());
+        assertTrue(states.isGranted(69));
+    }
+}
@@ -0,0 +1,58 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class PermissionTest {
+
+    @Test
+    public void combined_single() {
+        Permission permission = new Permission("p1", false, true);
+
+        Permission combined = new Permission(Collections.singletonList(permission));
+
+        assertEquals(permission, combined);
+    }
+
+    @Test
+    public void combined_allGranted() {
+        Permission combined = new Permission(Arrays.asList(
+                new Permission("p1", true),
+                new Permission("p2", true)));
+
+        assertEquals(new Permission("p1, p2", true, false), combined);
+    }
+
+    @Test
+    public void combined_oneDeniedOneRationale() {
+        Permission combined = new Permission(Arrays.asList(
+                new Permission("p1", true),
+                new Permission("p2", false, true),
+                new Permission("p3", false, false)));
+
+        assertEquals(new Permission("p1, p2, p3", false, true), combined);
+    }
+
+    @Test
+    public void combined_empty() {
+        Permission combined = new Permission(Collections.<Permission>emptyList());
+
+        assertEquals(new Permission("", true, false), combined);
+    }
+
+    @Test
+    public void of_canonicalInstances() {
+        Permission granted = Permission.of("p1", true, false);
+
+        assertSame(granted, Permission.of("p1", true, false));
+        assertNotSame(granted, Permission.of("p1", false, false));
+        assertEquals(new Permission("p1", true, false), granted);
+        assertEquals(new Permission("p1", true, false).hashCode(), granted.hashCode());
+    }
+}
@@ -0,0 +1,68 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * 默认的日志实现，输出到Logcat，警告和错误总是输出，其他级别由setLogging控制
+ *
+ * @author wally
+ */
+final class AndroidPermissionLogger implements PermissionLogger {
+    /**
+     * 打开调试日志
+     */
+    static final PermissionLogger ENABLED = new AndroidPermissionLogger(true);
+    /**
+     * 只输出警告和错误
+     */
+    static final PermissionLogger DISABLED = new AndroidPermissionLogger(false);
+
+    private final boolean mEnabled;
+
+    private AndroidPermissionLogger(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    @Override
+    public boolean isLoggable(int level) {
+        return mEnabled || level >= Log.WARN;
+    }
+
+    @Override
+    public void log(int level, @NonNull String message, @Nullable Object arg) {
+        Log.println(level, RxPermissions.TAG, format(message, arg));
+    }
+
+    @Override
+    public void onEvent(int event, @NonNull String permission, int requestCode, boolean granted) {
+        switch (event) {
+            case EVENT_REQUEST:
+                Log.d(RxPermissions.TAG, "Requesting permission " + permission);
+                break;
+            case EVENT_SYSTEM_REQUEST:
+                Log.d(RxPermissions.TAG, "Requesting " + permission + " with code " + requestCode);
+                break;
+            case EVENT_RESULT:
+                Log.d(RxPermissions.TAG, "Result for " + permission + " with code " + requestCode + ": " + (granted ? "granted" : "denied"));
+                break;
+            default:
+                Log.d(RxPermissions.TAG, "Unknown result for " + permission + " with code " + requestCode);
+                break;
+        }
+    }
+
+    /**
+     * 将参数替换到日志模板中的第一个{}
+     */
+    static String format(@NonNull String message, @Nullable Object arg) {
+        int index = message.indexOf("{}");
+        if (index < 0) {
+            return message;
+        }
+        String value = arg instanceof Object[] ? TextUtils.join(", ", (Object[]) arg) : String.valueOf(arg);
+        return message.substring(0, index) + value + message.substring(index + 2);
+    }
+}
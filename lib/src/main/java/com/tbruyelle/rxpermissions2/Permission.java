@@ -1,134 +0,0 @@
-package com.tbruyelle.rxpermissions2;
-
-import java.util.List;
-
-import io.reactivex.Observable;
-import io.reactivex.functions.BiConsumer;
-import io.reactivex.functions.Function;
-import io.reactivex.functions.Predicate;
-
-/**
- * 权限实体
- */
-public class Permission {
-    /**
-     * 权限名
-     */
-    public final String name;
-    /**
-     * 是否允许
-     */
-    public final boolean granted;
-    /**
-     * 是否被用户勾选了不再提示
-     */
-    public final boolean shouldShowRequestPermissionRationale;
-
-    public Permission(String name, boolean granted) {
-        this(name, granted, false);
-    }
-
-    public Permission(String name, boolean granted, boolean shouldShowRequestPermissionRationale) {
-        this.name = name;
-        this.granted = granted;
-        this.shouldShowRequestPermissionRationale = shouldShowRequestPermissionRationale;
-    }
-
-    public Permission(List<Permission> permissions) {
-        name = combineName(permissions);
-        granted = combineGranted(permissions);
-        shouldShowRequestPermissionRationale = combineShouldShowRequestPermissionRationale(permissions);
-    }
-
-    @Override
-    @SuppressWarnings("SimplifiableIfStatement")
-    public boolean equals(final Object o) {
-        if (this == o) {
-            return true;
-        }
-        if (o == null || getClass() != o.getClass()) {
-            return false;
-        }
-        final Permission that = (Permission) o;
-        if (granted != that.granted) {
-            return false;
-        }
-        if (shouldShowRequestPermissionRationale != that.shouldShowRequestPermissionRationale) {
-            return false;
-        }
-        return name.equals(that.name);
-    }
-
-    @Override
-    public int hashCode() {
-        int result = name.hashCode();
-        result = 31 * result + (granted ? 1 : 0);
-        result = 31 * result + (shouldShowRequestPermissionRationale ? 1 : 0);
-        return result;
-    }
-
-    @Override
-    public String toString() {
-        return "Permission{" +
-                "name='" + name + '\'' +
-                ", granted=" + granted +
-                ", shouldShowRequestPermissionRationale=" + shouldShowRequestPermissionRationale +
-                '}';
-    }
-
-    /**
-     * 所有权限，用逗号分开组合为一个字符串
-     *
-     * @param permissions 权限组
-     */
-    private String combineName(List<Permission> permissions) {
-        return Observable.fromIterable(permissions)
-                .map(new Function<Permission, String>() {
-                    @Override
-                    public String apply(Permission permission) throws Exception {
-                        return permission.name;
-                    }
-                }).collectInto(new StringBuilder(), new BiConsumer<StringBuilder, String>() {
-                    @Override
-                    public void accept(StringBuilder s, String s2) throws Exception {
-                        if (s.length() == 0) {
-                            s.append(s2);
-                        } else {
-                            s.append(", ").append(s2);
-                        }
-                    }
-                }).blockingGet().toString();
-    }
-
-    /**
-     * 判断所有权限是否都允许了
-     *
-     * @param permissions 权限列表
-     * @return true则代表所有权限都允许，false代表权限列表中有一项不允许
-     */
-    private Boolean combineGranted(List<Permission> permissions) {
-        return Observable.fromIterable(permissions)
-                .all(new Predicate<Permission>() {
-                    @Override
-                    public boolean test(Permission permission) throws Exception {
-                        return permission.granted;
-                    }
-                }).blockingGet();
-    }
-
-    /**
-     * 判断权限列表中是否有一项被勾选了不再提示
-     *
-     * @param permissions 权限列表
-     * @return true则表示有一项被勾选了不再提示，false则没有一项被勾选了不再提示
-     */
-    private Boolean combineShouldShowRequestPermissionRationale(List<Permission> permissions) {
-        return Observable.fromIterable(permissions)
-                .any(new Predicate<Permission>() {
-                    @Override
-                    public boolean test(Permission permission) throws Exception {
-                        return permission.shouldShowRequestPermissionRationale;
-                    }
-                }).blockingGet();
-    }
-}
@@ -0,0 +1,110 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * 权限状态快照，通过一次getPackageInfo读取清单中声明的所有权限的允许状态，避免每个权限调用一次checkSelfPermission
+ * 快照是不可变的，权限名有序存放，允许状态用位图保存
+ *
+ * @author wally
+ */
+public final class PermissionSnapshot {
+    /**
+     * 空快照
+     */
+    static final PermissionSnapshot EMPTY = new PermissionSnapshot(new String[0], new boolean[0]);
+
+    /**
+     * 排好序的权限名，用于二分查找
+     */
+    private final String[] mPermissions;
+    /**
+     * 权限是否允许的位图，下标和mPermissions对应
+     */
+    private final long[] mGranted;
+
+    PermissionSnapshot(@NonNull String[] permissions, @NonNull boolean[] granted) {
+        mPermissions = permissions.clone();
+        Arrays.sort(mPermissions);
+        mGranted = new long[(mPermissions.length + 63) >>> 6];
+        for (int i = 0; i < permissions.length; i++) {
+            if (granted[i]) {
+                int index = Arrays.binarySearch(mPermissions, permissions[i]);
+                mGranted[index >>> 6] |= 1L << index;
+            }
+        }
+    }
+
+    /**
+     * 读取当前应用清单中声明的所有权限的状态
+     *
+     * @param context 上下文
+     */
+    @NonNull
+    public static PermissionSnapshot take(@NonNull Context context) {
+        //requestedPermissionsFlags在4.1才有
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return EMPTY;
+        }
+        PackageInfo packageInfo;
+        try {
+            packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
+        } catch (PackageManager.NameNotFoundException e) {
+            return EMPTY;
+        }
+        String[] permissions = packageInfo.requestedPermissions;
+        int[] flags = packageInfo.requestedPermissionsFlags;
+        if (permissions == null || flags == null) {
+            return EMPTY;
+        }
+        boolean[] granted = new boolean[permissions.length];
+        for (int i = 0; i < permissions.length; i++) {
+            granted[i] = (flags[i] & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0;
+        }
+        return new PermissionSnapshot(permissions, granted);
+    }
+
+    /**
+     * 快照中是否包含该权限，没有在清单中声明的权限不会包含在快照中
+     *
+     * @param permission 权限
+     */
+    public boolean contains(@NonNull String permission) {
+        return Arrays.binarySearch(mPermissions, permission) >= 0;
+    }
+
+    /**
+     * 权限是否允许，不在快照中的权限返回false
+     *
+     * @param permission 权限
+     */
+    public boolean isGranted(@NonNull String permission) {
+        int index = Arrays.binarySearch(mPermissions, permission);
+        return index >= 0 && (mGranted[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * 快照中的权限数量
+     */
+    public int size() {
+        return mPermissions.length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("PermissionSnapshot{");
+        for (int i = 0; i < mPermissions.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(mPermissions[i]).append('=').append(isGranted(mPermissions[i]));
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,147 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 权限状态缓存，缓存权限的允许和撤销状态，避免每次判断都去调用checkSelfPermission和isPermissionRevokedByPolicy（跨进程调用）
+ * 缓存的内容保存在进程内共享的{@link PermissionStateStore}中，所有界面共用，这里只统计每个代理Fragment的命中情况
+ * 缓存在第一次查询时懒加载填充，在权限申请回调时更新，在onResume以及手动调用invalidate()时失效
+ * 清单中声明的权限的允许状态优先从权限快照中获取，一次查询就能得到所有权限的状态
+ *
+ * @author wally
+ */
+public class PermissionStateCache {
+    /**
+     * 共享的权限状态
+     */
+    private final PermissionStateStore mStore;
+    /**
+     * 命中次数
+     */
+    private final AtomicLong mHitCount = new AtomicLong();
+    /**
+     * 未命中次数
+     */
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    PermissionStateCache() {
+        this(PermissionStateStore.getInstance());
+    }
+
+    PermissionStateCache(@NonNull PermissionStateStore store) {
+        mStore = store;
+    }
+
+    /**
+     * 获取当前的缓存版本，查询系统前获取，写入缓存时带上
+     */
+    int getGeneration() {
+        return mStore.getGeneration();
+    }
+
+    /**
+     * 获取缓存的权限是否允许
+     *
+     * @param permission 权限
+     * @return 没有缓存则返回null
+     */
+    Boolean getGranted(@NonNull String permission) {
+        return count(mStore.getGranted(permission));
+    }
+
+    /**
+     * 缓存权限是否允许
+     *
+     * @param permission 权限
+     * @param granted    是否允许
+     * @param generation 查询前获取的缓存版本
+     */
+    void putGranted(@NonNull String permission, boolean granted, int generation) {
+        mStore.putGranted(permission, granted, generation);
+    }
+
+    /**
+     * 获取缓存的权限快照
+     *
+     * @return 没有缓存则返回null
+     */
+    PermissionSnapshot getSnapshot() {
+        return mStore.getSnapshot();
+    }
+
+    /**
+     * 缓存权限快照
+     *
+     * @param snapshot   权限快照
+     * @param generation 查询前获取的缓存版本
+     */
+    void putSnapshot(@NonNull PermissionSnapshot snapshot, int generation) {
+        mStore.putSnapshot(snapshot, generation);
+    }
+
+    /**
+     * 获取缓存的权限是否被撤销
+     *
+     * @param permission 权限
+     * @return 没有缓存则返回null
+     */
+    Boolean getRevoked(@NonNull String permission) {
+        return count(mStore.getRevoked(permission));
+    }
+
+    /**
+     * 缓存权限是否被撤销
+     *
+     * @param permission 权限
+     * @param revoked    是否被撤销
+     * @param generation 查询前获取的缓存版本
+     */
+    void putRevoked(@NonNull String permission, boolean revoked, int generation) {
+        mStore.putRevoked(permission, revoked, generation);
+    }
+
+    /**
+     * 收到申请结果，更新缓存
+     *
+     * @param permissions  权限列表
+     * @param grantResults 申请结果
+     */
+    void onResults(@NonNull String[] permissions, @NonNull int[] grantResults) {
+        mStore.onResults(permissions, grantResults);
+    }
+
+    /**
+     * 统计命中和未命中次数
+     */
+    private Boolean count(Boolean cached) {
+        if (cached == null) {
+            mMissCount.incrementAndGet();
+        } else {
+            mHitCount.incrementAndGet();
+        }
+        return cached;
+    }
+
+    /**
+     * 让缓存失效，下次查询会重新向系统获取
+     */
+    public void invalidate() {
+        mStore.invalidate();
+    }
+
+    /**
+     * 缓存命中次数
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 缓存未命中次数
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+}
@@ -0,0 +1,282 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 进程内共享的权限状态，所有RxPermissions实例和代理Fragment共用，一个界面查询过的权限其他界面可以直接使用
+ * 状态是不可变的，修改时复制一份再整体替换，读取只需要一次volatile读，不加锁
+ * 任意界面收到申请结果时更新，任意界面onResume时失效重新查询
+ *
+ * @author wally
+ */
+public final class PermissionStateStore {
+    private static final PermissionStateStore INSTANCE = new PermissionStateStore();
+
+    /**
+     * 当前的状态
+     */
+    private final AtomicReference<State> mState = new AtomicReference<>(State.EMPTY);
+    /**
+     * 是否已经监听了界面的生命周期
+     */
+    private final AtomicBoolean mRegistered = new AtomicBoolean();
+
+    private PermissionStateStore() {
+    }
+
+    /**
+     * 获取进程内唯一的实例
+     */
+    @NonNull
+    public static PermissionStateStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 监听应用内所有界面的onResume，用户可能在设置中修改了权限，回到任意界面时让状态失效，只会注册一次
+     *
+     * @param context 上下文
+     */
+    void register(@NonNull Context context) {
+        //生命周期回调在4.0才有，低版本只在代理Fragment的onResume时失效
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH || mRegistered.get()) {
+            return;
+        }
+        Context applicationContext = context.getApplicationContext();
+        if (applicationContext instanceof Application && mRegistered.compareAndSet(false, true)) {
+            registerCallbacks((Application) applicationContext);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private void registerCallbacks(Application application) {
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+                invalidate();
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+    }
+
+    /**
+     * 获取当前的状态版本，查询系统前获取，写入时带上
+     */
+    int getGeneration() {
+        return mState.get().generation;
+    }
+
+    /**
+     * 获取权限是否允许，申请结果优先于快照
+     *
+     * @param permission 权限
+     * @return 没有缓存则返回null
+     */
+    Boolean getGranted(@NonNull String permission) {
+        State state = mState.get();
+        Boolean granted = state.granted.get(permission);
+        if (granted != null) {
+            return granted;
+        }
+        PermissionSnapshot snapshot = state.snapshot;
+        if (snapshot != null && snapshot.contains(permission)) {
+            return snapshot.isGranted(permission);
+        }
+        return null;
+    }
+
+    /**
+     * 获取权限是否被撤销
+     *
+     * @param permission 权限
+     * @return 没有缓存则返回null
+     */
+    Boolean getRevoked(@NonNull String permission) {
+        return mState.get().revoked.get(permission);
+    }
+
+    /**
+     * 获取清单中所有权限的快照
+     *
+     * @return 没有缓存则返回null
+     */
+    PermissionSnapshot getSnapshot() {
+        return mState.get().snapshot;
+    }
+
+    /**
+     * 保存权限是否允许，状态在查询期间失效则丢弃
+     *
+     * @param permission 权限
+     * @param granted    是否允许
+     * @param generation 查询前获取的状态版本
+     */
+    void putGranted(@NonNull String permission, boolean granted, int generation) {
+        State state;
+        do {
+            state = mState.get();
+            if (state.generation != generation) {
+                return;
+            }
+        } while (!mState.compareAndSet(state, state.withGranted(permission, granted)));
+    }
+
+    /**
+     * 保存权限是否被撤销，状态在查询期间失效则丢弃
+     *
+     * @param permission 权限
+     * @param revoked    是否被撤销
+     * @param generation 查询前获取的状态版本
+     */
+    void putRevoked(@NonNull String permission, boolean revoked, int generation) {
+        State state;
+        do {
+            state = mState.get();
+            if (state.generation != generation) {
+                return;
+            }
+        } while (!mState.compareAndSet(state, state.withRevoked(permission, revoked)));
+    }
+
+    /**
+     * 保存权限快照，状态在查询期间失效则丢弃
+     *
+     * @param snapshot   权限快照
+     * @param generation 查询前获取的状态版本
+     */
+    void putSnapshot(@NonNull PermissionSnapshot snapshot, int generation) {
+        State state;
+        do {
+            state = mState.get();
+            if (state.generation != generation) {
+                return;
+            }
+        } while (!mState.compareAndSet(state, state.withSnapshot(snapshot)));
+    }
+
+    /**
+     * 收到申请结果，直接写入结果，其他界面不需要重新查询
+     * 状态版本递增，申请前发起的查询不会再写入
+     *
+     * @param permissions  权限列表
+     * @param grantResults 申请结果
+     */
+    void onResults(@NonNull String[] permissions, @NonNull int[] grantResults) {
+        State state;
+        State newState;
+        do {
+            state = mState.get();
+            newState = state.withResults(permissions, grantResults);
+        } while (!mState.compareAndSet(state, newState));
+    }
+
+    /**
+     * 让状态失效，下次查询会重新向系统获取
+     */
+    public void invalidate() {
+        State state;
+        do {
+            state = mState.get();
+        } while (!mState.compareAndSet(state, new State(state.generation + 1, null,
+                Collections.<String, Boolean>emptyMap(), Collections.<String, Boolean>emptyMap())));
+    }
+
+    /**
+     * 不可变的权限状态
+     */
+    private static final class State {
+        static final State EMPTY = new State(0, null,
+                Collections.<String, Boolean>emptyMap(), Collections.<String, Boolean>emptyMap());
+
+        /**
+         * 状态版本，每次失效或者收到申请结果都会递增
+         */
+        final int generation;
+        /**
+         * 清单中所有权限的快照
+         */
+        final PermissionSnapshot snapshot;
+        /**
+         * 单独查询的和申请结果得到的权限是否允许
+         */
+        final Map<String, Boolean> granted;
+        /**
+         * 权限是否被撤销
+         */
+        final Map<String, Boolean> revoked;
+
+        State(int generation, PermissionSnapshot snapshot, Map<String, Boolean> granted, Map<String, Boolean> revoked) {
+            this.generation = generation;
+            this.snapshot = snapshot;
+            this.granted = granted;
+            this.revoked = revoked;
+        }
+
+        State withGranted(String permission, boolean value) {
+            Map<String, Boolean> granted = new HashMap<>(this.granted);
+            granted.put(permission, value);
+            return new State(generation, snapshot, granted, revoked);
+        }
+
+        State withRevoked(String permission, boolean value) {
+            Map<String, Boolean> revoked = new HashMap<>(this.revoked);
+            revoked.put(permission, value);
+            return new State(generation, snapshot, granted, revoked);
+        }
+
+        State withSnapshot(PermissionSnapshot snapshot) {
+            return new State(generation, snapshot, granted, revoked);
+        }
+
+        State withResults(String[] permissions, int[] grantResults) {
+            Map<String, Boolean> granted = new HashMap<>(this.granted);
+            Map<String, Boolean> revoked = new HashMap<>(this.revoked);
+            for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+                boolean value = grantResults[i] == PermissionEngine.PERMISSION_GRANTED;
+                granted.put(permissions[i], value);
+                //被拒绝时是否被策略禁止需要重新查询
+                if (value) {
+                    revoked.put(permissions[i], false);
+                } else {
+                    revoked.remove(permissions[i]);
+                }
+            }
+            return new State(generation + 1, snapshot, granted, revoked);
+        }
+    }
+}
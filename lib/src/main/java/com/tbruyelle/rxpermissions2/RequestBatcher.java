@@ -0,0 +1,149 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.view.Choreographer;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 权限申请合并器，在一个时间窗口内收集所有待申请的权限，窗口结束时合并为一次系统申请
+ * 同一个界面的多个组件几乎同时申请权限时，只会弹出一次系统申请框
+ *
+ * @author wally
+ */
+final class RequestBatcher {
+    /**
+     * 每帧的时长，低于4.1没有Choreographer时使用
+     */
+    private static final long FRAME_MILLIS = 16;
+
+    /**
+     * 合并后的申请回调
+     */
+    interface Callback {
+        /**
+         * 发起系统申请，在主线程回调
+         *
+         * @param permissions 合并后的权限列表
+         * @param priority    窗口内最高的优先级
+         */
+        void dispatch(@NonNull String[] permissions, int priority);
+    }
+
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * 窗口内收集到的权限，保持申请顺序并去重
+     */
+    private final Set<String> mQueued = new LinkedHashSet<>();
+    /**
+     * 窗口内收集到的申请的最高优先级
+     */
+    private int mPriority = PermissionRequest.PRIORITY_BACKGROUND;
+    /**
+     * 是否已经安排了窗口结束时的合并申请
+     */
+    private boolean mScheduled;
+    /**
+     * 合并窗口时长
+     */
+    private volatile long mWindowMillis = RxPermissions.BATCH_WINDOW_NONE;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * 在下一帧合并申请
+     */
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                postFrameCallback();
+            } else {
+                mHandler.postDelayed(mFlush, FRAME_MILLIS);
+            }
+        }
+    };
+
+    RequestBatcher(@NonNull Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * 设置合并窗口
+     *
+     * @param windowMillis 窗口时长，{@link RxPermissions#BATCH_WINDOW_NONE}不合并，{@link RxPermissions#BATCH_WINDOW_FRAME}合并一帧内的申请
+     */
+    void setWindow(long windowMillis) {
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * 加入待申请的权限，不合并时直接申请
+     *
+     * @param permissions 权限列表
+     * @param priority    优先级，合并后的申请使用窗口内最高的优先级
+     */
+    void enqueue(@NonNull String[] permissions, int priority) {
+        long windowMillis = mWindowMillis;
+        if (windowMillis == RxPermissions.BATCH_WINDOW_NONE) {
+            mCallback.dispatch(permissions, priority);
+            return;
+        }
+        synchronized (this) {
+            for (String permission : permissions) {
+                mQueued.add(permission);
+            }
+            mPriority = Math.max(mPriority, priority);
+            if (mScheduled) {
+                return;
+            }
+            mScheduled = true;
+        }
+        if (windowMillis == RxPermissions.BATCH_WINDOW_FRAME) {
+            //Choreographer只能在主线程获取，先切到主线程
+            mHandler.post(mScheduleFrame);
+        } else {
+            mHandler.postDelayed(mFlush, windowMillis);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * 窗口结束，将收集到的权限一次性申请
+     */
+    private void flush() {
+        String[] permissions;
+        int priority;
+        synchronized (this) {
+            mScheduled = false;
+            if (mQueued.isEmpty()) {
+                return;
+            }
+            permissions = mQueued.toArray(new String[mQueued.size()]);
+            priority = mPriority;
+            mQueued.clear();
+            mPriority = PermissionRequest.PRIORITY_BACKGROUND;
+        }
+        mCallback.dispatch(permissions, priority);
+    }
+}
@@ -0,0 +1,164 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * 权限申请调度器，系统同一时间只能显示一个申请框，申请框显示期间到达的申请排队等待
+ * 申请框关闭后优先发起优先级最高的申请，优先级相同时先到先申请，后台的申请不会插到用户操作的申请前面
+ * 调度器记录自己发起的申请的请求码，只有这次申请收到结果，或者等待超时被清理后才发起下一个申请
+ *
+ * @author wally
+ */
+final class RequestScheduler {
+    /**
+     * 没有发起系统申请
+     */
+    static final int NO_REQUEST = -1;
+    /**
+     * 已经从队列中取出，正在发起系统申请
+     */
+    private static final int DISPATCHING = -2;
+
+    /**
+     * 调度器回调
+     */
+    interface Callback {
+        /**
+         * 发起系统申请，申请已经撤回时可以不发起，不会在持有调度器的锁时调用
+         *
+         * @param permissions 权限列表
+         * @return 请求码，没有发起系统申请时返回{@link #NO_REQUEST}
+         */
+        int dispatch(@NonNull String[] permissions);
+
+        /**
+         * 请求码对应的申请是否还在等待结果
+         *
+         * @param requestCode 请求码
+         */
+        boolean isActive(int requestCode);
+    }
+
+    /**
+     * 优先级高的在前，优先级相同时先加入的在前
+     */
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            if (o1.priority != o2.priority) {
+                return o1.priority > o2.priority ? -1 : 1;
+            }
+            return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+        }
+    };
+
+    private final Callback mCallback;
+    /**
+     * 等待弹框的申请，只在持有锁时读写
+     */
+    private final PriorityQueue<Entry> mQueue = new PriorityQueue<>(4, ORDER);
+    /**
+     * 加入队列的顺序，只在持有锁时读写
+     */
+    private long mSequence;
+    /**
+     * 最后一次发起的系统申请的请求码，只在持有锁时读写
+     */
+    private int mRequestCode = NO_REQUEST;
+    /**
+     * 指标监听，没有设置时为null
+     */
+    private volatile PermissionMetrics mMetrics;
+
+    RequestScheduler(@NonNull Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * 设置指标监听
+     *
+     * @param metrics 指标监听，null表示关闭
+     */
+    void setMetrics(PermissionMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 加入等待弹框的申请，没有申请正在进行时直接发起
+     *
+     * @param permissions 权限列表
+     * @param priority    优先级
+     */
+    void enqueue(@NonNull String[] permissions, int priority) {
+        synchronized (this) {
+            mQueue.offer(new Entry(permissions, priority, mSequence++, System.nanoTime()));
+        }
+        next();
+    }
+
+    /**
+     * 上一次发起的申请已经收到结果或者被清理时，发起队列中优先级最高的申请
+     * 在锁内取出申请，在锁外发起，其他线程不会同时发起
+     * 收到申请结果、清理超时的申请后调用，收到其他请求码的结果或者界面回到前台都不会提前发起
+     */
+    void next() {
+        while (true) {
+            int requestCode;
+            synchronized (this) {
+                requestCode = mRequestCode;
+            }
+            if (requestCode == DISPATCHING || (requestCode != NO_REQUEST && mCallback.isActive(requestCode))) {
+                return;
+            }
+            Entry entry;
+            synchronized (this) {
+                //其他线程已经发起了下一个申请，重新检查
+                if (mRequestCode != requestCode) {
+                    continue;
+                }
+                entry = mQueue.poll();
+                if (entry == null) {
+                    mRequestCode = NO_REQUEST;
+                    return;
+                }
+                mRequestCode = DISPATCHING;
+            }
+            PermissionMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onQueueWait(entry.priority, System.nanoTime() - entry.enqueueNanos);
+            }
+            requestCode = mCallback.dispatch(entry.permissions);
+            //撤回的申请不会发起，继续发起下一个；发起期间就收到了结果时也继续发起下一个
+            synchronized (this) {
+                mRequestCode = requestCode;
+            }
+        }
+    }
+
+    /**
+     * 等待弹框的申请数量
+     */
+    synchronized int size() {
+        return mQueue.size();
+    }
+
+    /**
+     * 一次等待弹框的申请
+     */
+    private static final class Entry {
+        final String[] permissions;
+        final int priority;
+        final long sequence;
+        final long enqueueNanos;
+
+        Entry(String[] permissions, int priority, long sequence, long enqueueNanos) {
+            this.permissions = permissions;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.enqueueNanos = enqueueNanos;
+        }
+    }
+}
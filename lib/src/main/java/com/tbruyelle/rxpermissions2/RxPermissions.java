@@ -17,68 +17,172 @@ package com.tbruyelle.rxpermissions2;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.os.Build;
+import android.content.pm.PackageManager;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
-import android.text.TextUtils;
-
-import java.util.ArrayList;
-import java.util.List;
 
 import io.reactivex.Observable;
-import io.reactivex.ObservableSource;
 import io.reactivex.ObservableTransformer;
-import io.reactivex.functions.Function;
-import io.reactivex.subjects.PublishSubject;
+import io.reactivex.Single;
+import io.reactivex.SingleTransformer;
 
 public class RxPermissions {
     static final String TAG = RxPermissions.class.getSimpleName();
+    /**
+     * 不合并权限申请，每次申请都立即弹出系统申请框
+     */
+    public static final long BATCH_WINDOW_NONE = 0;
+    /**
+     * 合并同一帧内的权限申请
+     */
+    public static final long BATCH_WINDOW_FRAME = -1;
+    /**
+     * 等待申请结果不超时
+     */
+    public static final long PENDING_TIMEOUT_NONE = 0;
     /**
      * 用于发起Rx数据源的空对象
      */
-    private static final Object TRIGGER = new Object();
-
+    static final Object TRIGGER = PermissionPipeline.TRIGGER;
+    /**
+     * 按FragmentManager缓存的实例
+     */
+    private static final RxPermissionsPool POOL = new RxPermissionsPool();
+    /**
+     * 全局结果流缓存的结果数量
+     */
+    static final int RESULTS_REPLAY_SIZE = 32;
+    /**
+     * 所有代理Fragment收到的申请结果，进程内共享
+     */
+    static final PermissionResultBuffer RESULTS = new PermissionResultBuffer(RESULTS_REPLAY_SIZE);
+    /**
+     * 权限申请代理Fragment懒加载和缓存，只有真正需要弹出权限申请框时才添加
+     */
+    @VisibleForTesting
+    FragmentLazy mRxPermissionsFragment;
+    /**
+     * 以Activity构造时的Activity
+     */
+    private final FragmentActivity mActivity;
+    /**
+     * 以Fragment构造时的Fragment
+     */
+    private final Fragment mFragment;
+    /**
+     * 日志、指标等设置，共用的实例和同一个宿主重新创建的共用实例使用同一份
+     */
+    private final Settings mSettings;
     /**
-     * 权限申请代理Fragment懒加载和缓存
+     * 还没有添加代理Fragment时检查权限使用的缓存，和其他界面共享状态，单独统计命中次数
      */
     @VisibleForTesting
-    Lazy<RxPermissionsFragment> mRxPermissionsFragment;
+    final PermissionStateCache mStateCache = new PermissionStateCache();
+    /**
+     * 提供给申请引擎的平台实现，按优先级区分，第一次申请时创建
+     */
+    private final PermissionBackend[] mBackends = new PermissionBackend[PermissionRequest.PRIORITY_USER_INITIATED + 1];
+    /**
+     * 申请权限Transformer的组合，检查权限和发起申请交给这里
+     */
+    private final PermissionPipeline mPipeline = new PermissionPipeline(new PermissionPipeline.Host() {
+        @Override
+        public PermissionEngine peekEngine() {
+            RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+            return fragment != null ? fragment.getEngine() : null;
+        }
+
+        @NonNull
+        @Override
+        public PermissionResultVector request(@NonNull PermissionRequest request) {
+            return requestImplementation(request);
+        }
+    });
+
+    /**
+     * 获取Activity共用的实例，同一个Activity多次获取返回同一个实例，适合在Adapter等需要频繁获取的地方使用
+     * 共用的实例也共用日志、指标等设置
+     *
+     * @param activity 宿主Activity
+     */
+    @NonNull
+    public static RxPermissions of(@NonNull FragmentActivity activity) {
+        FragmentManager fragmentManager = activity.getSupportFragmentManager();
+        RxPermissions rxPermissions = POOL.get(fragmentManager);
+        if (rxPermissions == null) {
+            rxPermissions = POOL.putIfAbsent(fragmentManager, new RxPermissions(activity, POOL.getSettings(fragmentManager)));
+        }
+        return rxPermissions;
+    }
+
+    /**
+     * 获取Fragment共用的实例，同一个Fragment多次获取返回同一个实例
+     *
+     * @param fragment 宿主Fragment
+     */
+    @NonNull
+    public static RxPermissions of(@NonNull Fragment fragment) {
+        FragmentManager fragmentManager = fragment.getChildFragmentManager();
+        RxPermissions rxPermissions = POOL.get(fragmentManager);
+        if (rxPermissions == null) {
+            rxPermissions = POOL.putIfAbsent(fragmentManager, new RxPermissions(fragment, POOL.getSettings(fragmentManager)));
+        }
+        return rxPermissions;
+    }
 
     /**
      * 以Activity，构造实例
      */
     public RxPermissions(@NonNull final FragmentActivity activity) {
-        mRxPermissionsFragment = getLazySingleton(activity.getSupportFragmentManager());
+        this(activity, new Settings());
     }
 
     /**
      * 以Fragment，构造实例
      */
     public RxPermissions(@NonNull final Fragment fragment) {
-        mRxPermissionsFragment = getLazySingleton(fragment.getChildFragmentManager());
+        this(fragment, new Settings());
     }
 
     /**
-     * 获取懒加载实例
-     *
-     * @param fragmentManager Fragment管理器
+     * 以Activity和已有的设置，构造实例
+     */
+    RxPermissions(@NonNull final FragmentActivity activity, @NonNull Settings settings) {
+        mActivity = activity;
+        mSettings = settings;
+        mFragment = null;
+        PermissionStateStore.getInstance().register(activity);
+        mRxPermissionsFragment = new FragmentLazy(activity.getSupportFragmentManager());
+    }
+
+    /**
+     * 以Fragment和已有的设置，构造实例
+     */
+    RxPermissions(@NonNull final Fragment fragment, @NonNull Settings settings) {
+        mActivity = null;
+        mSettings = settings;
+        mFragment = fragment;
+        mRxPermissionsFragment = new FragmentLazy(fragment.getChildFragmentManager());
+    }
+
+    /**
+     * 获取宿主Activity，用于在没有添加代理Fragment时直接查询权限状态
      */
     @NonNull
-    private Lazy<RxPermissionsFragment> getLazySingleton(@NonNull final FragmentManager fragmentManager) {
-        return new Lazy<RxPermissionsFragment>() {
-            private RxPermissionsFragment rxPermissionsFragment;
-
-            @Override
-            public synchronized RxPermissionsFragment get() {
-                //缓存实例，下次使用直接获取
-                if (rxPermissionsFragment == null) {
-                    rxPermissionsFragment = getRxPermissionsFragment(fragmentManager);
-                }
-                return rxPermissionsFragment;
-            }
-        };
+    private FragmentActivity getActivity() {
+        final FragmentActivity activity = mActivity != null ? mActivity : mFragment.getActivity();
+        if (activity == null) {
+            throw new IllegalStateException("RxPermissions must be used with a fragment attached to an activity.");
+        }
+        if (mActivity == null) {
+            //以Fragment构造时还没有Activity，第一次使用时再监听界面的生命周期
+            PermissionStateStore.getInstance().register(activity);
+        }
+        return activity;
     }
 
     /**
@@ -87,6 +191,9 @@ public class RxPermissions {
      * @param fragmentManager Fragment管理器
      */
     private RxPermissionsFragment getRxPermissionsFragment(@NonNull final FragmentManager fragmentManager) {
+        final Settings settings = mSettings;
+        final PermissionMetrics metrics = settings.metrics;
+        final long start = metrics != null ? System.nanoTime() : 0;
         //查找Fragment实例
         RxPermissionsFragment rxPermissionsFragment = findRxPermissionsFragment(fragmentManager);
         boolean isNewInstance = rxPermissionsFragment == null;
@@ -98,6 +205,18 @@ public class RxPermissions {
                     .add(rxPermissionsFragment, TAG)
                     .commitNow();
         }
+        rxPermissionsFragment.setLogger(settings.logger);
+        rxPermissionsFragment.setMetrics(metrics);
+        rxPermissionsFragment.setDenialHistory(settings.denialHistory);
+        if (metrics != null && isNewInstance) {
+            metrics.onFragmentAttached(System.nanoTime() - start);
+        }
+        if (settings.batchWindowMillis != BATCH_WINDOW_NONE) {
+            rxPermissionsFragment.setBatchWindow(settings.batchWindowMillis);
+        }
+        if (settings.pendingTimeoutMillis != PENDING_TIMEOUT_NONE) {
+            rxPermissionsFragment.setPendingTimeout(settings.pendingTimeoutMillis);
+        }
         return rxPermissionsFragment;
     }
 
@@ -116,7 +235,128 @@ public class RxPermissions {
      * @param logging 是否打印Log
      */
     public void setLogging(boolean logging) {
-        mRxPermissionsFragment.get().setLogging(logging);
+        setLogger(logging ? AndroidPermissionLogger.ENABLED : AndroidPermissionLogger.DISABLED);
+    }
+
+    /**
+     * 设置日志实现，可以将日志和结构化事件接入自己的日志或者统计系统
+     *
+     * @param logger 日志实现
+     */
+    @SuppressWarnings("WeakerAccess")
+    public void setLogger(@NonNull PermissionLogger logger) {
+        mSettings.logger = logger;
+        //还没有添加代理Fragment则等到添加时再设置
+        RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+        if (fragment != null) {
+            fragment.setLogger(logger);
+        }
+    }
+
+    /**
+     * 设置指标监听，可以统计添加代理Fragment、检查权限、弹框到收到结果的耗时，以及每个权限的结果次数
+     *
+     * @param metrics 指标监听，传null关闭
+     */
+    @SuppressWarnings("unused")
+    public void setMetrics(@Nullable PermissionMetrics metrics) {
+        mSettings.metrics = metrics;
+        RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+        if (fragment != null) {
+            fragment.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * 开启权限拒绝历史，用户勾选了不再提示的权限再次申请时直接返回拒绝，不再发起系统申请
+     * 可以使用{@link SharedPreferencesDenialHistory}保存到本地
+     *
+     * @param history 拒绝历史，传null关闭
+     */
+    @SuppressWarnings("unused")
+    public void setDenialHistory(@Nullable PermissionDenialHistory history) {
+        mSettings.denialHistory = history;
+        RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+        if (fragment != null) {
+            fragment.setDenialHistory(history);
+        }
+    }
+
+    /**
+     * 设置权限申请合并窗口，窗口内多次申请的权限会合并为一次系统申请，适用于同一个界面多个组件同时申请权限的场景
+     *
+     * @param windowMillis 窗口时长（毫秒），{@link #BATCH_WINDOW_NONE}不合并（默认），{@link #BATCH_WINDOW_FRAME}合并同一帧内的申请
+     */
+    @SuppressWarnings("unused")
+    public void setBatchWindow(long windowMillis) {
+        if (windowMillis < 0 && windowMillis != BATCH_WINDOW_FRAME) {
+            throw new IllegalArgumentException("windowMillis must be >= 0 or BATCH_WINDOW_FRAME");
+        }
+        mSettings.batchWindowMillis = windowMillis;
+        RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+        if (fragment != null) {
+            fragment.setBatchWindow(windowMillis);
+        }
+    }
+
+    /**
+     * 所有界面收到的权限申请结果，热数据源，不会结束
+     * 订阅时先收到最近的{@value #RESULTS_REPLAY_SIZE}个结果，之后继续收到新的结果，适合统计等不发起申请的地方观察权限的变化
+     * 结果在主线程发送
+     */
+    @SuppressWarnings("unused")
+    public static Observable<Permission> results() {
+        return RESULTS.observe();
+    }
+
+    /**
+     * 进程被回收前正在弹框的申请的结果
+     * 进程在弹框时被回收，原来的订阅者已经不存在，用户的选择会通过这里发送，所有恢复的申请都收到结果后结束
+     * 恢复后再次申请同样的权限会等待这次的结果，不会再次弹框
+     */
+    @SuppressWarnings("unused")
+    public Observable<Permission> pendingResults() {
+        RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+        if (fragment == null) {
+            return Observable.empty();
+        }
+        return fragment.getEngine().recoveredResults();
+    }
+
+    /**
+     * 设置等待申请结果的超时时间，Activity结束或者进程进入后台后申请结果可能不会再返回
+     * 超时的申请在下一次申请时清理，订阅者收到拒绝的结果，避免代理Fragment一直持有订阅者
+     * 还没有弹框的申请在所有订阅者都取消时立即撤回，正在弹框的申请保留到收到结果或者超时
+     *
+     * @param timeoutMillis 超时时间（毫秒），{@link #PENDING_TIMEOUT_NONE}不超时（默认）
+     */
+    @SuppressWarnings("unused")
+    public void setPendingTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis must be >= 0");
+        }
+        mSettings.pendingTimeoutMillis = timeoutMillis;
+        RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+        if (fragment != null) {
+            fragment.setPendingTimeout(timeoutMillis);
+        }
+    }
+
+    /**
+     * 被清理的等待中的申请数量，包括所有订阅者都取消了的和等待超时的
+     */
+    @SuppressWarnings("unused")
+    public long getEvictedCount() {
+        RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+        return fragment != null ? fragment.getEvictedCount() : 0;
+    }
+
+    /**
+     * 共用了正在进行的申请结果的触发数量，申请框显示期间Transformer再次收到的触发不会重新申请
+     */
+    @SuppressWarnings("unused")
+    public long getCoalescedTriggerCount() {
+        return mPipeline.getCoalescedTriggerCount();
     }
 
     /**
@@ -126,33 +366,17 @@ public class RxPermissions {
      */
     @SuppressWarnings("WeakerAccess")
     public <T> ObservableTransformer<T, Boolean> ensure(final String... permissions) {
-        return new ObservableTransformer<T, Boolean>() {
-            @Override
-            public ObservableSource<Boolean> apply(Observable<T> o) {
-                //申请权限
-                return request(o, permissions)
-                        //一次性申请，buffer指定一次发射的数量为权限列表数量，所以是一次性申请权限
-                        .buffer(permissions.length)
-                        .flatMap(new Function<List<Permission>, ObservableSource<Boolean>>() {
-                            @Override
-                            public ObservableSource<Boolean> apply(List<Permission> permissions) {
-                                //申请的权限为空，直接通知订阅者的onComplete
-                                if (permissions.isEmpty()) {
-                                    return Observable.empty();
-                                }
-                                //所有权限都允许了，才返回true
-                                for (Permission permission : permissions) {
-                                    //是要有一个没有授权，则返回false
-                                    if (!permission.granted) {
-                                        return Observable.just(false);
-                                    }
-                                }
-                                //所有都允许了
-                                return Observable.just(true);
-                            }
-                        });
-            }
-        };
+        return ensure(PermissionRequest.of(permissions));
+    }
+
+    /**
+     * 批量申请权限Transformer，使用预先构建的申请计划
+     *
+     * @param request 申请计划
+     */
+    @SuppressWarnings("WeakerAccess")
+    public <T> ObservableTransformer<T, Boolean> ensure(@NonNull final PermissionRequest request) {
+        return mPipeline.ensure(request);
     }
 
     /**
@@ -162,12 +386,17 @@ public class RxPermissions {
      */
     @SuppressWarnings("WeakerAccess")
     public <T> ObservableTransformer<T, Permission> ensureEach(final String... permissions) {
-        return new ObservableTransformer<T, Permission>() {
-            @Override
-            public ObservableSource<Permission> apply(Observable<T> o) {
-                return request(o, permissions);
-            }
-        };
+        return ensureEach(PermissionRequest.of(permissions));
+    }
+
+    /**
+     * 申请权限Transformer，使用预先构建的申请计划，每个权限通知订阅者一次
+     *
+     * @param request 申请计划
+     */
+    @SuppressWarnings("WeakerAccess")
+    public <T> ObservableTransformer<T, Permission> ensureEach(@NonNull final PermissionRequest request) {
+        return mPipeline.ensureEach(request);
     }
 
     /**
@@ -176,25 +405,57 @@ public class RxPermissions {
      * @param permissions 申请的权限列表
      */
     public <T> ObservableTransformer<T, Permission> ensureEachCombined(final String... permissions) {
-        return new ObservableTransformer<T, Permission>() {
-            @Override
-            public ObservableSource<Permission> apply(Observable<T> o) {
-                //申请权限
-                return request(o, permissions)
-                        //buffer，一次性批量申请所有权限
-                        .buffer(permissions.length)
-                        .flatMap(new Function<List<Permission>, ObservableSource<Permission>>() {
-                            @Override
-                            public ObservableSource<Permission> apply(List<Permission> permissions) {
-                                if (permissions.isEmpty()) {
-                                    return Observable.empty();
-                                }
-                                //将结果直接发送
-                                return Observable.just(new Permission(permissions));
-                            }
-                        });
-            }
-        };
+        return ensureEachCombined(PermissionRequest.of(permissions));
+    }
+
+    /**
+     * 和ensure类似，使用预先构建的申请计划，返回合并后的Permission对象
+     *
+     * @param request 申请计划
+     */
+    @SuppressWarnings("WeakerAccess")
+    public <T> ObservableTransformer<T, Permission> ensureEachCombined(@NonNull final PermissionRequest request) {
+        return mPipeline.ensureEachCombined(request);
+    }
+
+    /**
+     * 和ensure一样，但是由Single触发，结果也是Single，只会通知订阅者一次
+     *
+     * @param permissions 需要申请的权限
+     */
+    @SuppressWarnings("WeakerAccess")
+    public <T> SingleTransformer<T, Boolean> ensureSingle(final String... permissions) {
+        return ensureSingle(PermissionRequest.of(permissions));
+    }
+
+    /**
+     * 和ensure一样，但是由Single触发，使用预先构建的申请计划
+     *
+     * @param request 申请计划
+     */
+    @SuppressWarnings("WeakerAccess")
+    public <T> SingleTransformer<T, Boolean> ensureSingle(@NonNull final PermissionRequest request) {
+        return mPipeline.ensureSingle(request);
+    }
+
+    /**
+     * 和ensureEachCombined一样，但是由Single触发，结果也是Single，只会通知订阅者一次
+     *
+     * @param permissions 需要申请的权限
+     */
+    @SuppressWarnings("WeakerAccess")
+    public <T> SingleTransformer<T, Permission> ensureEachCombinedSingle(final String... permissions) {
+        return ensureEachCombinedSingle(PermissionRequest.of(permissions));
+    }
+
+    /**
+     * 和ensureEachCombined一样，但是由Single触发，使用预先构建的申请计划
+     *
+     * @param request 申请计划
+     */
+    @SuppressWarnings("WeakerAccess")
+    public <T> SingleTransformer<T, Permission> ensureEachCombinedSingle(@NonNull final PermissionRequest request) {
+        return mPipeline.ensureEachCombinedSingle(request);
     }
 
     /**
@@ -204,7 +465,17 @@ public class RxPermissions {
      */
     @SuppressWarnings({"WeakerAccess", "unused"})
     public Observable<Boolean> request(final String... permissions) {
-        return Observable.just(TRIGGER).compose(ensure(permissions));
+        return request(PermissionRequest.of(permissions));
+    }
+
+    /**
+     * 直接发起申请权限，批量申请权限
+     *
+     * @param request 申请计划
+     */
+    @SuppressWarnings({"WeakerAccess", "unused"})
+    public Observable<Boolean> request(@NonNull final PermissionRequest request) {
+        return Observable.just(TRIGGER).compose(this.<Object>ensure(request));
     }
 
     /**
@@ -214,7 +485,17 @@ public class RxPermissions {
      */
     @SuppressWarnings({"WeakerAccess", "unused"})
     public Observable<Permission> requestEach(final String... permissions) {
-        return Observable.just(TRIGGER).compose(ensureEach(permissions));
+        return requestEach(PermissionRequest.of(permissions));
+    }
+
+    /**
+     * 直接发起申请权限，每个权限都通知一次订阅者
+     *
+     * @param request 申请计划
+     */
+    @SuppressWarnings({"WeakerAccess", "unused"})
+    public Observable<Permission> requestEach(@NonNull final PermissionRequest request) {
+        return Observable.just(TRIGGER).compose(this.<Object>ensureEach(request));
     }
 
     /**
@@ -223,99 +504,109 @@ public class RxPermissions {
      * @param permissions 申请的权限列表
      */
     public Observable<Permission> requestEachCombined(final String... permissions) {
-        return Observable.just(TRIGGER).compose(ensureEachCombined(permissions));
+        return requestEachCombined(PermissionRequest.of(permissions));
     }
 
     /**
-     * 申请权限request中转
+     * 直接发起申请权限，批量申请，返回合并后的Permission
      *
-     * @param trigger     原始数据源
-     * @param permissions 申请的权限
+     * @param request 申请计划
      */
-    private Observable<Permission> request(final Observable<?> trigger, final String... permissions) {
-        if (permissions == null || permissions.length == 0) {
-            throw new IllegalArgumentException("RxPermissions.request/requestEach requires at least one input permission");
-        }
-        //数据源一一匹配，确保是成对存在
-        return oneOf(trigger, pending(permissions))
-                .flatMap(new Function<Object, Observable<Permission>>() {
-                    @Override
-                    public Observable<Permission> apply(Object o) {
-                        //真正申请权限的实现，每个权限都一个个去申请
-                        return requestImplementation(permissions);
-                    }
-                });
+    @SuppressWarnings({"WeakerAccess", "unused"})
+    public Observable<Permission> requestEachCombined(@NonNull final PermissionRequest request) {
+        return Observable.just(TRIGGER).compose(this.<Object>ensureEachCombined(request));
     }
 
     /**
-     * 过滤掉权限和结果数据源不匹配的情况
+     * 直接发起申请权限，批量申请权限，全部都授权了才返回true
      *
-     * @param permissions 申请的权限
+     * @param permissions 申请的权限列表
      */
-    private Observable<?> pending(final String... permissions) {
-        for (String permission : permissions) {
-            if (!mRxPermissionsFragment.get().containsByPermission(permission)) {
-                return Observable.empty();
-            }
-        }
-        return Observable.just(TRIGGER);
+    @SuppressWarnings({"WeakerAccess", "unused"})
+    public Single<Boolean> requestSingle(final String... permissions) {
+        return requestSingle(PermissionRequest.of(permissions));
     }
 
     /**
-     * 数据源一一匹配，确保是成对存在
+     * 直接发起申请权限，批量申请权限，全部都授权了才返回true
+     *
+     * @param request 申请计划
      */
-    private Observable<?> oneOf(Observable<?> trigger, Observable<?> pending) {
-        if (trigger == null) {
-            return Observable.just(TRIGGER);
-        }
-        return Observable.merge(trigger, pending);
+    @SuppressWarnings({"WeakerAccess", "unused"})
+    public Single<Boolean> requestSingle(@NonNull final PermissionRequest request) {
+        return Single.just(TRIGGER).compose(this.<Object>ensureSingle(request));
     }
 
     /**
-     * 真正申请权限
+     * 直接发起申请权限，批量申请权限，返回合并后的Permission
      *
-     * @param permissions 申请的权限
+     * @param permissions 申请的权限列表
      */
-    @TargetApi(Build.VERSION_CODES.M)
-    private Observable<Permission> requestImplementation(final String... permissions) {
-        //权限申请前的结果
-        List<Observable<Permission>> list = new ArrayList<>(permissions.length);
-        //待申请的权限列表
-        List<String> unrequestedPermissions = new ArrayList<>();
-        //为每个权限创建一个数据源
-        for (String permission : permissions) {
-            mRxPermissionsFragment.get().log("Requesting permission " + permission);
-            //加入已经被允许的权限数据源
-            if (isGranted(permission)) {
-                list.add(Observable.just(new Permission(permission, true, false)));
-                continue;
-            }
-            //加入被拒绝的权限的数据源
-            if (isRevoked(permission)) {
-                list.add(Observable.just(new Permission(permission, false, false)));
-                continue;
-            }
-            //获取权限申请存根，这种是为了避免快速请求多次，存入了多个结果数据源回调
-            PublishSubject<Permission> subject = mRxPermissionsFragment.get().getSubjectByPermission(permission);
-            //不存在则创建一个，并保存到代理Fragment
-            if (subject == null) {
-                //需要申请，添加到待申请的权限
-                unrequestedPermissions.add(permission);
-                subject = PublishSubject.create();
-                mRxPermissionsFragment.get().setSubjectForPermission(permission, subject);
-            }
-            //加入待进行申请的权限数据源
-            list.add(subject);
+    @SuppressWarnings({"WeakerAccess", "unused"})
+    public Single<Permission> requestEachCombinedSingle(final String... permissions) {
+        return requestEachCombinedSingle(PermissionRequest.of(permissions));
+    }
+
+    /**
+     * 直接发起申请权限，批量申请权限，返回合并后的Permission
+     *
+     * @param request 申请计划
+     */
+    @SuppressWarnings({"WeakerAccess", "unused"})
+    public Single<Permission> requestEachCombinedSingle(@NonNull final PermissionRequest request) {
+        return Single.just(TRIGGER).compose(this.<Object>ensureEachCombinedSingle(request));
+    }
+
+    /**
+     * 真正申请权限，交给申请引擎完成
+     *
+     * @param request 申请计划
+     */
+    private PermissionResultVector requestImplementation(final PermissionRequest request) {
+        PermissionBackend backend = getBackend(request.getPriority());
+        //先检查权限，全部都有结果时不需要代理Fragment
+        PermissionResultVector results = PermissionEngine.check(request, backend, mSettings.denialHistory, mSettings.logger, mSettings.metrics);
+        if (!results.isComplete()) {
+            //需要弹出申请框，这时才添加代理Fragment
+            mRxPermissionsFragment.get().getEngine().requestPending(results, backend);
         }
-        //如果存在需要申请的权限，则申请权限
-        if (!unrequestedPermissions.isEmpty()) {
-            //集合转为数组
-            String[] unrequestedPermissionsArray = unrequestedPermissions.toArray(new String[unrequestedPermissions.size()]);
-            //调用代理Fragment去申请权限
-            requestPermissionsFromFragment(unrequestedPermissionsArray);
+        return results;
+    }
+
+    /**
+     * 获取提供给申请引擎的平台实现，按用户操作触发的优先级申请
+     */
+    private PermissionBackend getBackend() {
+        return getBackend(PermissionRequest.PRIORITY_USER_INITIATED);
+    }
+
+    /**
+     * 获取提供给申请引擎的平台实现，权限检查和申请都经过RxPermissions，没有代理Fragment时也可以检查权限
+     *
+     * @param priority 申请的优先级
+     */
+    private PermissionBackend getBackend(final int priority) {
+        PermissionBackend backend = mBackends[priority];
+        if (backend == null) {
+            backend = new PermissionBackend() {
+                @Override
+                public boolean isGranted(@NonNull String permission) {
+                    return RxPermissions.this.isGranted(permission);
+                }
+
+                @Override
+                public boolean isRevoked(@NonNull String permission) {
+                    return RxPermissions.this.isRevoked(permission);
+                }
+
+                @Override
+                public void requestPermissions(@NonNull String[] permissions) {
+                    requestPermissionsFromFragment(permissions, priority);
+                }
+            };
+            mBackends[priority] = backend;
         }
-        //发射允许和被拒绝的权限，concat顺序发送权限结果数据源，将他们的结果按顺序铺平发送
-        return Observable.concat(Observable.fromIterable(list));
+        return backend;
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -330,26 +621,65 @@ public class RxPermissions {
     /**
      * 判断是否权限是否被用户勾选了不再提示
      */
-    @TargetApi(Build.VERSION_CODES.M)
     private boolean shouldShowRequestPermissionRationaleImplementation(final Activity activity, final String... permissions) {
-        for (String permission : permissions) {
-            //没有允许，如果用户勾选了不再提示shouldShowRequestPermissionRationale会返回false
-            if (!isGranted(permission) && !activity.shouldShowRequestPermissionRationale(permission)) {
-                return false;
+        return checkRationaleImplementation(activity, PermissionRequest.of(permissions)).shouldShowAllRationale();
+    }
+
+    /**
+     * 一次检查一组权限的允许和说明状态，结果中可以知道每个权限是否允许、是否需要显示说明
+     *
+     * @param activity    用于查询是否需要显示说明的Activity
+     * @param permissions 需要检查的权限
+     */
+    @SuppressWarnings("unused")
+    public Single<PermissionStates> checkRationale(@NonNull final Activity activity, final String... permissions) {
+        return checkRationale(activity, PermissionRequest.of(permissions));
+    }
+
+    /**
+     * 一次检查一组权限的允许和说明状态，使用预先构建的申请计划
+     *
+     * @param activity 用于查询是否需要显示说明的Activity
+     * @param request  申请计划
+     */
+    @SuppressWarnings("WeakerAccess")
+    public Single<PermissionStates> checkRationale(@NonNull final Activity activity, @NonNull final PermissionRequest request) {
+        return Single.just(checkRationaleImplementation(activity, request));
+    }
+
+    /**
+     * 检查允许和说明状态，允许状态和申请时一样经过共享的权限状态缓存，只有没有允许的权限才查询是否需要显示说明
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private PermissionStates checkRationaleImplementation(final Activity activity, final PermissionRequest request) {
+        final String[] permissions = request.permissions();
+        PermissionStates states = new PermissionStates(permissions);
+        PermissionBackend backend = getBackend();
+        boolean marshmallow = isMarshmallow();
+        for (int i = 0; i < permissions.length; i++) {
+            if (backend.isGranted(permissions[i])) {
+                states.setGranted(i);
+            } else if (marshmallow && activity.shouldShowRequestPermissionRationale(permissions[i])) {
+                //没有允许，如果用户勾选了不再提示shouldShowRequestPermissionRationale会返回false
+                states.setRationale(i);
             }
         }
-        return true;
+        return states;
     }
 
     /**
      * 调用申请权限的代理Fragment申请权限
      *
      * @param permissions 目标权限列表
+     * @param priority    优先级，有申请框正在显示时按优先级排队
      */
     @TargetApi(Build.VERSION_CODES.M)
-    void requestPermissionsFromFragment(String[] permissions) {
-        mRxPermissionsFragment.get().log("requestPermissionsFromFragment " + TextUtils.join(", ", permissions));
-        mRxPermissionsFragment.get().requestPermissions(permissions);
+    void requestPermissionsFromFragment(String[] permissions, int priority) {
+        PermissionLogger logger = mSettings.logger;
+        if (logger.isLoggable(PermissionLogger.DEBUG)) {
+            logger.log(PermissionLogger.DEBUG, "requestPermissionsFromFragment {}", permissions);
+        }
+        mRxPermissionsFragment.get().requestPermissionsWithPriority(permissions, priority);
     }
 
     /**
@@ -358,8 +688,24 @@ public class RxPermissions {
      * @param permission 目标权限
      */
     @SuppressWarnings("WeakerAccess")
+    @TargetApi(Build.VERSION_CODES.M)
     public boolean isGranted(String permission) {
-        return !isMarshmallow() || mRxPermissionsFragment.get().isGranted(permission);
+        if (!isMarshmallow()) {
+            return true;
+        }
+        RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+        if (fragment != null) {
+            return fragment.isGranted(permission);
+        }
+        //还没有添加代理Fragment，先使用其他界面共享的状态，没有再直接通过Activity查询，不需要为了查询权限而添加Fragment
+        Boolean cached = mStateCache.getGranted(permission);
+        if (cached != null) {
+            return cached;
+        }
+        int generation = mStateCache.getGeneration();
+        boolean granted = getActivity().checkSelfPermission(permission) == PackageManager.PERMISSION_GRANTED;
+        mStateCache.putGranted(permission, granted, generation);
+        return granted;
     }
 
     /**
@@ -368,8 +714,62 @@ public class RxPermissions {
      * @param permission 目标权限
      */
     @SuppressWarnings("WeakerAccess")
+    @TargetApi(Build.VERSION_CODES.M)
     public boolean isRevoked(String permission) {
-        return isMarshmallow() && mRxPermissionsFragment.get().isRevoked(permission);
+        if (!isMarshmallow()) {
+            return false;
+        }
+        RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+        if (fragment != null) {
+            return fragment.isRevoked(permission);
+        }
+        Boolean cached = mStateCache.getRevoked(permission);
+        if (cached != null) {
+            return cached;
+        }
+        int generation = mStateCache.getGeneration();
+        FragmentActivity activity = getActivity();
+        boolean revoked = activity.getPackageManager().isPermissionRevokedByPolicy(permission, activity.getPackageName());
+        mStateCache.putRevoked(permission, revoked, generation);
+        return revoked;
+    }
+
+    /**
+     * 获取清单中声明的所有权限的状态快照，只需要一次跨进程调用
+     */
+    @SuppressWarnings("unused")
+    public PermissionSnapshot snapshot() {
+        RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+        if (fragment != null) {
+            return fragment.getSnapshot();
+        }
+        PermissionSnapshot snapshot = mStateCache.getSnapshot();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        int generation = mStateCache.getGeneration();
+        snapshot = PermissionSnapshot.take(getActivity());
+        mStateCache.putSnapshot(snapshot, generation);
+        return snapshot;
+    }
+
+    /**
+     * 让权限状态缓存失效，下次判断权限时重新向系统查询
+     * 一般不需要手动调用，界面onResume和权限申请回调时会自动失效
+     */
+    @SuppressWarnings("unused")
+    public void invalidate() {
+        PermissionStateStore.getInstance().invalidate();
+    }
+
+    /**
+     * 获取权限状态缓存，可以通过它获取缓存的命中和未命中次数
+     * 已经添加了代理Fragment时返回Fragment的缓存，否则返回还没有添加Fragment时检查权限使用的缓存，不会为了读取统计而添加Fragment
+     */
+    @SuppressWarnings("WeakerAccess")
+    public PermissionStateCache getStateCache() {
+        RxPermissionsFragment fragment = mRxPermissionsFragment.peek();
+        return fragment != null ? fragment.getStateCache() : mStateCache;
     }
 
     /**
@@ -389,6 +789,80 @@ public class RxPermissions {
         mRxPermissionsFragment.get().onRequestPermissionsResult(permissions, grantResults, new boolean[permissions.length]);
     }
 
+    /**
+     * 实例的设置，不持有宿主，共用的实例被回收后重新创建时继续使用
+     */
+    static final class Settings {
+        /**
+         * 日志，默认只输出警告和错误
+         */
+        PermissionLogger logger = AndroidPermissionLogger.DISABLED;
+        /**
+         * 指标监听，没有设置时为null
+         */
+        PermissionMetrics metrics;
+        /**
+         * 权限拒绝历史，没有开启时为null
+         */
+        PermissionDenialHistory denialHistory;
+        /**
+         * 权限申请合并窗口
+         */
+        long batchWindowMillis = BATCH_WINDOW_NONE;
+        /**
+         * 等待申请结果的超时时间
+         */
+        long pendingTimeoutMillis = PENDING_TIMEOUT_NONE;
+    }
+
+    /**
+     * 代理Fragment的懒加载实现
+     */
+    class FragmentLazy implements Lazy<RxPermissionsFragment> {
+        private final FragmentManager fragmentManager;
+        /**
+         * 添加后不会再变，volatile保证其他线程看到的是完整初始化的实例
+         */
+        private volatile RxPermissionsFragment rxPermissionsFragment;
+
+        FragmentLazy(@NonNull FragmentManager fragmentManager) {
+            this.fragmentManager = fragmentManager;
+        }
+
+        @Override
+        public RxPermissionsFragment get() {
+            //缓存实例，下次使用直接获取，已经添加后不需要加锁
+            RxPermissionsFragment fragment = rxPermissionsFragment;
+            if (fragment == null) {
+                synchronized (this) {
+                    fragment = rxPermissionsFragment;
+                    if (fragment == null) {
+                        fragment = getRxPermissionsFragment(fragmentManager);
+                        rxPermissionsFragment = fragment;
+                    }
+                }
+            }
+            return fragment;
+        }
+
+        /**
+         * 获取已经添加的代理Fragment，没有添加则返回null，不会添加新的Fragment
+         */
+        @Nullable
+        RxPermissionsFragment peek() {
+            RxPermissionsFragment fragment = rxPermissionsFragment;
+            if (fragment != null) {
+                return fragment;
+            }
+            //只缓存找到的Fragment，没有找到时每次都重新查找，其他实例之后添加的Fragment也能找到
+            //屏幕旋转后保留下来的Fragment，可能还有正在申请的权限
+            if (findRxPermissionsFragment(fragmentManager) == null) {
+                return null;
+            }
+            return get();
+        }
+    }
+
     /**
      * 懒加载接口
      */
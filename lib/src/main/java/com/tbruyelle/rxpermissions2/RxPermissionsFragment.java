@@ -1,40 +1,73 @@
 package com.tbruyelle.rxpermissions2;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
-import android.util.Log;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 import io.reactivex.subjects.PublishSubject;
 
 /**
- * 权限申请代理Fragment
+ * 权限申请代理Fragment，是PermissionEngine在Android上的平台实现
  *
  * @author wally
  */
-public class RxPermissionsFragment extends Fragment {
+public class RxPermissionsFragment extends Fragment implements PermissionBackend {
     /**
-     * 权限申请请求码
+     * 保存正在进行的申请时，权限名表的key
      */
-    private static final int PERMISSIONS_REQUEST_CODE = 42;
-
+    private static final String STATE_PERMISSIONS = "rxpermissions:permissions";
+    /**
+     * 保存正在进行的申请时，每次申请的请求码和权限位置的key
+     */
+    private static final String STATE_REQUESTS = "rxpermissions:requests";
+    /**
+     * 申请引擎，保存正在申请的权限，随Fragment一起保留
+     */
+    private final PermissionEngine mEngine = new PermissionEngine();
+    /**
+     * 权限状态缓存
+     */
+    private final PermissionStateCache mStateCache = new PermissionStateCache();
     /**
-     * 当前请求的权限结果数据源
+     * 权限申请合并器，合并窗口内的申请
      */
-    private Map<String, PublishSubject<Permission>> mSubjects = new HashMap<>();
+    private final RequestBatcher mBatcher = new RequestBatcher(new RequestBatcher.Callback() {
+        @Override
+        public void dispatch(@NonNull String[] permissions, int priority) {
+            mScheduler.enqueue(permissions, priority);
+        }
+    });
     /**
-     * 是否打印Log
+     * 权限申请调度器，一次只发起一个系统申请，其他申请按优先级排队
      */
-    private boolean mLogging;
+    private final RequestScheduler mScheduler = new RequestScheduler(new RequestScheduler.Callback() {
+        @Override
+        public int dispatch(@NonNull String[] permissions) {
+            //排队期间所有订阅者都取消了的权限已经撤回，不再弹框
+            String[] unrequested = mEngine.filterUnrequested(permissions);
+            if (unrequested.length == 0) {
+                return RequestScheduler.NO_REQUEST;
+            }
+            return requestPermissionsNow(unrequested);
+        }
+
+        @Override
+        public boolean isActive(int requestCode) {
+            return mEngine.isActiveRequest(requestCode);
+        }
+    });
 
     public RxPermissionsFragment() {
+        mEngine.setLogger(AndroidPermissionLogger.DISABLED);
+        mEngine.setResultBuffer(RxPermissions.RESULTS);
     }
 
     @Override
@@ -42,17 +75,77 @@ public class RxPermissionsFragment extends Fragment {
         super.onCreate(savedInstanceState);
         //保持实例，避免屏幕旋转时，重建Fragment实例
         setRetainInstance(true);
+        //保留的实例不会再次调用onCreate，有保存的状态说明进程被回收过，恢复弹框时正在进行的申请
+        if (savedInstanceState != null) {
+            String[] permissions = savedInstanceState.getStringArray(STATE_PERMISSIONS);
+            long[] requests = savedInstanceState.getLongArray(STATE_REQUESTS);
+            if (permissions != null && requests != null) {
+                mEngine.restorePendingRequests(permissions, requests);
+            }
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        List<String> permissions = new ArrayList<>();
+        long[] requests = mEngine.savePendingRequests(permissions);
+        if (requests.length > 0) {
+            outState.putStringArray(STATE_PERMISSIONS, permissions.toArray(new String[permissions.size()]));
+            outState.putLongArray(STATE_REQUESTS, requests);
+        }
+    }
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        PermissionStateStore.getInstance().register(context);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        //用户可能在设置中修改了权限，回到界面时让缓存失效
+        mStateCache.invalidate();
+        //结果丢失的申请等待超时后清理，回到界面时继续发起排队的申请
+        mEngine.evictExpiredRequests();
+        mScheduler.next();
+    }
+
+    /**
+     * 开始申请权限，按用户操作触发的优先级
+     *
+     * @param permissions 需要申请的权限列表
+     */
+    @Override
+    public void requestPermissions(@NonNull String[] permissions) {
+        requestPermissionsWithPriority(permissions, PermissionRequest.PRIORITY_USER_INITIATED);
     }
 
     /**
      * 开始申请权限
      *
      * @param permissions 需要申请的权限列表
+     * @param priority    优先级，有申请框正在显示时按优先级排队
+     */
+    void requestPermissionsWithPriority(@NonNull String[] permissions, int priority) {
+        //先交给合并器，合并窗口内的其他申请后再交给调度器排队
+        mBatcher.enqueue(permissions, priority);
+    }
+
+    /**
+     * 立即向系统申请权限
+     *
+     * @param permissions 需要申请的权限列表
+     * @return 请求码
      */
     @TargetApi(Build.VERSION_CODES.M)
-    void requestPermissions(@NonNull String[] permissions) {
+    int requestPermissionsNow(@NonNull String[] permissions) {
+        //每次申请分配独立的请求码，结果按请求码找回这次申请
+        int requestCode = mEngine.beginRequest(permissions);
         //调用系统的申请权限API
-        requestPermissions(permissions, PERMISSIONS_REQUEST_CODE);
+        requestPermissions(permissions, requestCode);
+        return requestCode;
     }
 
     /**
@@ -67,43 +160,49 @@ public class RxPermissionsFragment extends Fragment {
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         //忽略不是自己请求的权限回调
-        if (requestCode != PERMISSIONS_REQUEST_CODE) {
+        if (!PermissionEngine.isRequestCode(requestCode)) {
             return;
         }
-        //检查是否需要显示原理
+        //检查是否需要显示原理，只有被拒绝的权限才需要查询
         boolean[] shouldShowRequestPermissionRationale = new boolean[permissions.length];
         for (int i = 0; i < permissions.length; i++) {
-            shouldShowRequestPermissionRationale[i] = shouldShowRequestPermissionRationale(permissions[i]);
+            if (grantResults[i] != PackageManager.PERMISSION_GRANTED) {
+                shouldShowRequestPermissionRationale[i] = shouldShowRequestPermissionRationale(permissions[i]);
+            }
         }
         //开始处理权限请求结果
-        onRequestPermissionsResult(permissions, grantResults, shouldShowRequestPermissionRationale);
+        onRequestPermissionsResult(requestCode, permissions, grantResults, shouldShowRequestPermissionRationale);
     }
 
     /**
-     * 权限结果处理
+     * 权限结果处理，没有请求码时按权限名找到对应的申请
      *
      * @param permissions                          权限列表
      * @param grantResults                         申请结果
      * @param shouldShowRequestPermissionRationale 是否被用户勾选了不再提示
      */
     void onRequestPermissionsResult(String[] permissions, int[] grantResults, boolean[] shouldShowRequestPermissionRationale) {
-        for (int i = 0, size = permissions.length; i < size; i++) {
-            log("onRequestPermissionsResult  " + permissions[i]);
-            //用回权限映射找回数据源存根
-            PublishSubject<Permission> subject = mSubjects.get(permissions[i]);
-            if (subject == null) {
-                //一般不会找不到，如果找不到则抛异常
-                Log.e(RxPermissions.TAG, "RxPermissions.onRequestPermissionsResult invoked but didn't find the corresponding permission request.");
-                return;
-            }
-            //移除存根
-            mSubjects.remove(permissions[i]);
-            //判断是否被允许了
-            boolean granted = grantResults[i] == PackageManager.PERMISSION_GRANTED;
-            //将结果发送回订阅者
-            subject.onNext(new Permission(permissions[i], granted, shouldShowRequestPermissionRationale[i]));
-            subject.onComplete();
-        }
+        //权限状态已经改变，先更新共享的状态，订阅者收到结果后再查询就是最新的状态
+        mStateCache.onResults(permissions, grantResults);
+        mEngine.onRequestPermissionsResult(permissions, grantResults, shouldShowRequestPermissionRationale);
+        //申请框已经关闭，发起下一个排队的申请
+        mScheduler.next();
+    }
+
+    /**
+     * 权限结果处理，交给引擎按请求码分发
+     *
+     * @param requestCode                          请求码
+     * @param permissions                          权限列表
+     * @param grantResults                         申请结果
+     * @param shouldShowRequestPermissionRationale 是否被用户勾选了不再提示
+     */
+    void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults, boolean[] shouldShowRequestPermissionRationale) {
+        //权限状态已经改变，先更新共享的状态，订阅者收到结果后再查询就是最新的状态
+        mStateCache.onResults(permissions, grantResults);
+        mEngine.onRequestPermissionsResult(requestCode, permissions, grantResults, shouldShowRequestPermissionRationale);
+        //申请框已经关闭，发起下一个排队的申请
+        mScheduler.next();
     }
 
     /**
@@ -111,13 +210,27 @@ public class RxPermissionsFragment extends Fragment {
      *
      * @param permission 权限
      */
+    @Override
     @TargetApi(Build.VERSION_CODES.M)
-    boolean isGranted(String permission) {
+    public boolean isGranted(@NonNull String permission) {
         final FragmentActivity fragmentActivity = getActivity();
         if (fragmentActivity == null) {
             throw new IllegalStateException("This fragment must be attached to an activity.");
         }
-        return fragmentActivity.checkSelfPermission(permission) == PackageManager.PERMISSION_GRANTED;
+        Boolean cached = mStateCache.getGranted(permission);
+        if (cached != null) {
+            return cached;
+        }
+        int generation = mStateCache.getGeneration();
+        //清单中声明的权限从快照中获取，快照一次性读取所有权限的状态，后续的查询都可以命中
+        PermissionSnapshot snapshot = getSnapshot();
+        if (snapshot.contains(permission)) {
+            return snapshot.isGranted(permission);
+        }
+        //没有在清单中声明的权限，单独查询
+        boolean granted = fragmentActivity.checkSelfPermission(permission) == PackageManager.PERMISSION_GRANTED;
+        mStateCache.putGranted(permission, granted, generation);
+        return granted;
     }
 
     /**
@@ -125,13 +238,47 @@ public class RxPermissionsFragment extends Fragment {
      *
      * @param permission 权限
      */
+    @Override
     @TargetApi(Build.VERSION_CODES.M)
-    boolean isRevoked(String permission) {
+    public boolean isRevoked(@NonNull String permission) {
         final FragmentActivity fragmentActivity = getActivity();
         if (fragmentActivity == null) {
             throw new IllegalStateException("This fragment must be attached to an activity.");
         }
-        return fragmentActivity.getPackageManager().isPermissionRevokedByPolicy(permission, getActivity().getPackageName());
+        Boolean cached = mStateCache.getRevoked(permission);
+        if (cached != null) {
+            return cached;
+        }
+        int generation = mStateCache.getGeneration();
+        boolean revoked = fragmentActivity.getPackageManager().isPermissionRevokedByPolicy(permission, getActivity().getPackageName());
+        mStateCache.putRevoked(permission, revoked, generation);
+        return revoked;
+    }
+
+    /**
+     * 获取清单中所有权限的状态快照，有缓存则直接使用缓存
+     */
+    @NonNull
+    PermissionSnapshot getSnapshot() {
+        PermissionSnapshot snapshot = mStateCache.getSnapshot();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        final FragmentActivity fragmentActivity = getActivity();
+        if (fragmentActivity == null) {
+            throw new IllegalStateException("This fragment must be attached to an activity.");
+        }
+        int generation = mStateCache.getGeneration();
+        snapshot = PermissionSnapshot.take(fragmentActivity);
+        mStateCache.putSnapshot(snapshot, generation);
+        return snapshot;
+    }
+
+    /**
+     * 获取权限状态缓存
+     */
+    PermissionStateCache getStateCache() {
+        return mStateCache;
     }
 
     /**
@@ -140,7 +287,81 @@ public class RxPermissionsFragment extends Fragment {
      * @param logging 是否允许打印Log
      */
     public void setLogging(boolean logging) {
-        mLogging = logging;
+        mEngine.setLogger(logging ? AndroidPermissionLogger.ENABLED : AndroidPermissionLogger.DISABLED);
+    }
+
+    /**
+     * 设置日志实现
+     *
+     * @param logger 日志
+     */
+    void setLogger(@NonNull PermissionLogger logger) {
+        mEngine.setLogger(logger);
+    }
+
+    /**
+     * 设置指标监听
+     *
+     * @param metrics 指标监听，null表示关闭
+     */
+    void setMetrics(PermissionMetrics metrics) {
+        mEngine.setMetrics(metrics);
+        mScheduler.setMetrics(metrics);
+    }
+
+    /**
+     * 设置权限拒绝历史
+     *
+     * @param history 拒绝历史，null表示关闭
+     */
+    void setDenialHistory(PermissionDenialHistory history) {
+        mEngine.setDenialHistory(history);
+    }
+
+    /**
+     * 获取申请引擎
+     */
+    PermissionEngine getEngine() {
+        return mEngine;
+    }
+
+    /**
+     * 正在等待结果的权限数量
+     */
+    int getPendingCount() {
+        return mEngine.getPendingCount();
+    }
+
+    /**
+     * 排队等待弹框的申请数量
+     */
+    int getQueuedCount() {
+        return mScheduler.size();
+    }
+
+    /**
+     * 设置权限申请合并窗口
+     *
+     * @param windowMillis 窗口时长
+     */
+    void setBatchWindow(long windowMillis) {
+        mBatcher.setWindow(windowMillis);
+    }
+
+    /**
+     * 设置等待申请结果的超时时间
+     *
+     * @param timeoutMillis 超时时间（毫秒）
+     */
+    void setPendingTimeout(long timeoutMillis) {
+        mEngine.setPendingTimeout(timeoutMillis);
+    }
+
+    /**
+     * 被清理的等待中的申请数量
+     */
+    long getEvictedCount() {
+        return mEngine.getEvictedCount();
     }
 
     /**
@@ -149,7 +370,7 @@ public class RxPermissionsFragment extends Fragment {
      * @param permission 目标权限
      */
     public PublishSubject<Permission> getSubjectByPermission(@NonNull String permission) {
-        return mSubjects.get(permission);
+        return mEngine.getSubject(permission);
     }
 
     /**
@@ -158,7 +379,7 @@ public class RxPermissionsFragment extends Fragment {
      * @param permission 目标权限
      */
     public boolean containsByPermission(@NonNull String permission) {
-        return mSubjects.containsKey(permission);
+        return mEngine.contains(permission);
     }
 
     /**
@@ -168,17 +389,6 @@ public class RxPermissionsFragment extends Fragment {
      * @param subject    权限申请存根
      */
     public void setSubjectForPermission(@NonNull String permission, @NonNull PublishSubject<Permission> subject) {
-        mSubjects.put(permission, subject);
-    }
-
-    /**
-     * Log打印
-     *
-     * @param message 需要打印的信息
-     */
-    void log(String message) {
-        if (mLogging) {
-            Log.d(RxPermissions.TAG, message);
-        }
+        mEngine.putSubject(permission, subject);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+import android.support.v4.app.FragmentManager;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * RxPermissions实例池，同一个FragmentManager共用一个实例
+ * 实例持有宿主Activity，宿主又持有FragmentManager，所以实例只弱引用，不会阻止界面被回收
+ * 设置不持有宿主，和FragmentManager同生命周期强引用，实例被回收后重新创建的实例沿用原来的日志、指标等设置
+ * 最近一次使用的实例单独缓存，连续在同一个界面获取时只需要一次volatile读，不加锁也不分配对象
+ *
+ * @author wally
+ */
+final class RxPermissionsPool {
+    /**
+     * FragmentManager和实例、设置的映射
+     */
+    private final Map<FragmentManager, Slot> mInstances = new WeakHashMap<>();
+    /**
+     * 最近一次使用的实例
+     */
+    private volatile Entry mLast;
+
+    /**
+     * 获取FragmentManager对应的实例
+     *
+     * @param fragmentManager 宿主的FragmentManager
+     * @return 没有或者已经被回收返回null
+     */
+    RxPermissions get(@NonNull FragmentManager fragmentManager) {
+        Entry last = mLast;
+        if (last != null && last.fragmentManager.get() == fragmentManager) {
+            RxPermissions rxPermissions = last.rxPermissions.get();
+            if (rxPermissions != null) {
+                return rxPermissions;
+            }
+        }
+        synchronized (this) {
+            Slot slot = mInstances.get(fragmentManager);
+            WeakReference<RxPermissions> reference = slot != null ? slot.rxPermissions : null;
+            RxPermissions rxPermissions = reference != null ? reference.get() : null;
+            if (rxPermissions != null) {
+                mLast = new Entry(fragmentManager, reference);
+            }
+            return rxPermissions;
+        }
+    }
+
+    /**
+     * 获取FragmentManager对应的设置，没有则创建，用于创建新的实例
+     *
+     * @param fragmentManager 宿主的FragmentManager
+     */
+    @NonNull
+    RxPermissions.Settings getSettings(@NonNull FragmentManager fragmentManager) {
+        synchronized (this) {
+            return getSlot(fragmentManager).settings;
+        }
+    }
+
+    /**
+     * 保存实例，其他线程已经保存了则使用已经保存的
+     *
+     * @param fragmentManager 宿主的FragmentManager
+     * @param rxPermissions   新创建的实例
+     * @return 池中的实例
+     */
+    @NonNull
+    RxPermissions putIfAbsent(@NonNull FragmentManager fragmentManager, @NonNull RxPermissions rxPermissions) {
+        synchronized (this) {
+            Slot slot = getSlot(fragmentManager);
+            RxPermissions existing = slot.rxPermissions != null ? slot.rxPermissions.get() : null;
+            if (existing != null) {
+                return existing;
+            }
+            slot.rxPermissions = new WeakReference<>(rxPermissions);
+            mLast = new Entry(fragmentManager, slot.rxPermissions);
+            return rxPermissions;
+        }
+    }
+
+    /**
+     * 获取FragmentManager对应的映射，没有则创建，需要持有锁
+     */
+    private Slot getSlot(FragmentManager fragmentManager) {
+        Slot slot = mInstances.get(fragmentManager);
+        if (slot == null) {
+            slot = new Slot();
+            mInstances.put(fragmentManager, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * FragmentManager对应的实例和设置，只在持有锁时读写
+     */
+    private static final class Slot {
+        /**
+         * 设置，跟随FragmentManager释放
+         */
+        final RxPermissions.Settings settings = new RxPermissions.Settings();
+        /**
+         * 实例，还没有保存时为null
+         */
+        WeakReference<RxPermissions> rxPermissions;
+    }
+
+    /**
+     * 最近一次使用的实例，不可变
+     */
+    private static final class Entry {
+        final WeakReference<FragmentManager> fragmentManager;
+        final WeakReference<RxPermissions> rxPermissions;
+
+        Entry(FragmentManager fragmentManager, WeakReference<RxPermissions> rxPermissions) {
+            this.fragmentManager = new WeakReference<>(fragmentManager);
+            this.rxPermissions = rxPermissions;
+        }
+    }
+}
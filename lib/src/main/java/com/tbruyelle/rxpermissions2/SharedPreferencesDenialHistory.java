@@ -0,0 +1,212 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 保存在SharedPreferences中的权限拒绝历史，应用重启后仍然有效
+ * 每个权限第一次使用时从SharedPreferences读取后缓存在内存中，SharedPreferences在构造时已经开始在后台线程加载，不会在主线程一次性读取所有记录
+ * 修改先在内存中合并，延迟一段时间后一次性异步写入
+ *
+ * @author wally
+ */
+public class SharedPreferencesDenialHistory implements PermissionDenialHistory {
+    private static final String PREFERENCES_NAME = "rxpermissions_denial_history";
+    /**
+     * 合并写入的延迟
+     */
+    private static final long WRITE_DELAY_MILLIS = 500;
+    /**
+     * 已经读取过，没有记录的权限
+     */
+    private static final Entry NONE = new Entry(0, 0, false, false);
+
+    private final SharedPreferences mPreferences;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * 内存中的拒绝记录，每个权限第一次使用时从SharedPreferences读取，没有记录的权限为NONE
+     */
+    private final ConcurrentMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+    /**
+     * 还没有写入的修改，值为null表示删除
+     */
+    private final Map<String, Entry> mDirty = new HashMap<>();
+    /**
+     * 拒绝后的冷却时间，冷却时间内即使没有勾选不再提示也不再弹框
+     */
+    private volatile long mCooldownMillis;
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    public SharedPreferencesDenialHistory(@NonNull Context context) {
+        mPreferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 设置拒绝后的冷却时间，默认为0，只跳过勾选了不再提示的权限
+     *
+     * @param cooldownMillis 冷却时间（毫秒）
+     */
+    @SuppressWarnings("unused")
+    public void setCooldown(long cooldownMillis) {
+        mCooldownMillis = cooldownMillis;
+    }
+
+    @Override
+    public boolean shouldSkipRequest(@NonNull String permission) {
+        Entry entry = getEntry(permission);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.permanent) {
+            return true;
+        }
+        long cooldownMillis = mCooldownMillis;
+        return cooldownMillis > 0 && System.currentTimeMillis() - entry.lastDeniedAt < cooldownMillis;
+    }
+
+    @Override
+    public void onResult(@NonNull Permission permission) {
+        Entry previous = getEntry(permission.name);
+        if (permission.granted) {
+            //大多数情况下没有记录，不需要写入
+            if (previous != null) {
+                mEntries.put(permission.name, NONE);
+                markDirty(permission.name, null);
+            }
+            return;
+        }
+        //拒绝后不需要显示说明，可能是用户勾选了不再提示，也可能是Android 11以上没有选择就关闭了申请框
+        //只有上次拒绝后需要显示说明，这次不再需要时才是勾选了不再提示，连续关闭申请框不会当作不再提示
+        boolean rationale = permission.shouldShowRequestPermissionRationale;
+        boolean permanent = previous != null
+                && (previous.permanent || (previous.rationale && !rationale));
+        Entry entry = new Entry(previous != null ? previous.denials + 1 : 1, System.currentTimeMillis(), rationale, permanent);
+        mEntries.put(permission.name, entry);
+        markDirty(permission.name, entry);
+    }
+
+    /**
+     * 权限被拒绝的次数
+     *
+     * @param permission 权限
+     */
+    @SuppressWarnings("unused")
+    public int getDenialCount(@NonNull String permission) {
+        Entry entry = getEntry(permission);
+        return entry == null ? 0 : entry.denials;
+    }
+
+    /**
+     * 清除所有拒绝历史
+     */
+    @SuppressWarnings("unused")
+    public void clear() {
+        mEntries.clear();
+        synchronized (mDirty) {
+            mDirty.clear();
+        }
+        mHandler.removeCallbacks(mWrite);
+        mPreferences.edit().clear().apply();
+    }
+
+    /**
+     * 获取权限的拒绝记录，第一次使用时从SharedPreferences读取
+     *
+     * @return 没有记录返回null
+     */
+    private Entry getEntry(String permission) {
+        Entry entry = mEntries.get(permission);
+        if (entry == null) {
+            entry = Entry.parse(mPreferences.getString(permission, null));
+            Entry existing = mEntries.putIfAbsent(permission, entry);
+            if (existing != null) {
+                entry = existing;
+            }
+        }
+        return entry == NONE ? null : entry;
+    }
+
+    private void markDirty(String permission, Entry entry) {
+        synchronized (mDirty) {
+            boolean scheduled = !mDirty.isEmpty();
+            mDirty.put(permission, entry);
+            if (scheduled) {
+                return;
+            }
+        }
+        mHandler.postDelayed(mWrite, WRITE_DELAY_MILLIS);
+    }
+
+    /**
+     * 一次性写入所有修改，apply在后台线程写磁盘
+     */
+    private void write() {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        synchronized (mDirty) {
+            for (Map.Entry<String, Entry> dirty : mDirty.entrySet()) {
+                if (dirty.getValue() == null) {
+                    editor.remove(dirty.getKey());
+                } else {
+                    editor.putString(dirty.getKey(), dirty.getValue().toString());
+                }
+            }
+            mDirty.clear();
+        }
+        editor.apply();
+    }
+
+    /**
+     * 一个权限的拒绝记录，保存为"拒绝次数,最后拒绝时间,是否不再提示,最后拒绝后是否需要显示说明"
+     */
+    private static final class Entry {
+        final int denials;
+        final long lastDeniedAt;
+        final boolean rationale;
+        final boolean permanent;
+
+        Entry(int denials, long lastDeniedAt, boolean rationale, boolean permanent) {
+            this.denials = denials;
+            this.lastDeniedAt = lastDeniedAt;
+            this.rationale = rationale;
+            this.permanent = permanent;
+        }
+
+        /**
+         * 解析保存的记录，没有记录或者格式不对时返回NONE，旧版本没有保存是否需要显示说明的记录按不需要处理
+         */
+        static Entry parse(String value) {
+            if (value == null) {
+                return NONE;
+            }
+            String[] parts = value.split(",");
+            if (parts.length != 3 && parts.length != 4) {
+                return NONE;
+            }
+            try {
+                return new Entry(Integer.parseInt(parts[0]), Long.parseLong(parts[1]),
+                        parts.length == 4 && "1".equals(parts[3]), "1".equals(parts[2]));
+            } catch (NumberFormatException e) {
+                return NONE;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return denials + "," + lastDeniedAt + "," + (permanent ? "1" : "0") + "," + (rationale ? "1" : "0");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionSnapshotTest {
+
+    @Test
+    public void isGranted() {
+        PermissionSnapshot snapshot = new PermissionSnapshot(
+                new String[]{"p3", "p1", "p2"},
+                new boolean[]{true, false, true});
+
+        assertEquals(3, snapshot.size());
+        assertFalse(snapshot.isGranted("p1"));
+        assertTrue(snapshot.isGranted("p2"));
+        assertTrue(snapshot.isGranted("p3"));
+    }
+
+    @Test
+    public void isGranted_notDeclared() {
+        PermissionSnapshot snapshot = new PermissionSnapshot(new String[]{"p1"}, new boolean[]{true});
+
+        assertFalse(snapshot.contains("p2"));
+        assertFalse(snapshot.isGranted("p2"));
+    }
+
+    @Test
+    public void isGranted_manyPermissions() {
+        String[] permissions = new String[130];
+        boolean[] granted = new boolean[permissions.length];
+        for (int i = 0; i < permissions.length; i++) {
+            permissions[i] = "p" + i;
+            granted[i] = i % 3 == 0;
+        }
+
+        PermissionSnapshot snapshot = new PermissionSnapshot(permissions, granted);
+
+        for (int i = 0; i < permissions.length; i++) {
+            assertTrue(snapshot.contains(permissions[i]));
+            assertEquals(granted[i], snapshot.isGranted(permissions[i]));
+        }
+    }
+
+    @Test
+    public void empty() {
+        assertEquals(0, PermissionSnapshot.EMPTY.size());
+        assertFalse(PermissionSnapshot.EMPTY.contains("p"));
+        assertFalse(PermissionSnapshot.EMPTY.isGranted("p"));
+    }
+}
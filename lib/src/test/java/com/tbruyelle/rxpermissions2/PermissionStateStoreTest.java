@@ -0,0 +1,66 @@
+package com.tbruyelle.rxpermissions2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionStateStoreTest {
+
+    private final PermissionStateStore mStore = PermissionStateStore.getInstance();
+
+    @Before
+    public void setup() {
+        mStore.invalidate();
+    }
+
+    @Test
+    public void sharedAcrossCaches() {
+        PermissionStateCache first = new PermissionStateCache(mStore);
+        PermissionStateCache second = new PermissionStateCache(mStore);
+
+        first.putGranted("p", true, first.getGeneration());
+
+        assertTrue(second.getGranted("p"));
+        assertEquals(1, second.getHitCount());
+        assertEquals(0, first.getHitCount());
+    }
+
+    @Test
+    public void putAfterInvalidate_dropped() {
+        int generation = mStore.getGeneration();
+        mStore.invalidate();
+
+        mStore.putGranted("p", true, generation);
+        mStore.putRevoked("p", true, generation);
+
+        assertNull(mStore.getGranted("p"));
+        assertNull(mStore.getRevoked("p"));
+    }
+
+    @Test
+    public void onResults_overridesSnapshot() {
+        mStore.putSnapshot(new PermissionSnapshot(new String[]{"p1", "p2"}, new boolean[]{false, false}), mStore.getGeneration());
+        int generation = mStore.getGeneration();
+
+        mStore.onResults(new String[]{"p1"}, new int[]{PermissionEngine.PERMISSION_GRANTED});
+        mStore.putGranted("p1", false, generation);
+
+        assertTrue(mStore.getGranted("p1"));
+        assertFalse(mStore.getGranted("p2"));
+        assertFalse(mStore.getRevoked("p1"));
+    }
+
+    @Test
+    public void invalidate_clearsState() {
+        mStore.putGranted("p", true, mStore.getGeneration());
+
+        mStore.invalidate();
+
+        assertNull(mStore.getGranted("p"));
+        assertNull(mStore.getSnapshot());
+    }
+}
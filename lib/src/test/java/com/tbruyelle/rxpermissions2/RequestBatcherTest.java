@@ -0,0 +1,74 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.M)
+public class RequestBatcherTest {
+
+    private final List<String[]> mDispatched = new ArrayList<>();
+    private final List<Integer> mPriorities = new ArrayList<>();
+
+    private RequestBatcher mBatcher;
+
+    @Before
+    public void setup() {
+        mBatcher = new RequestBatcher(new RequestBatcher.Callback() {
+            @Override
+            public void dispatch(@NonNull String[] permissions, int priority) {
+                mDispatched.add(permissions);
+                mPriorities.add(priority);
+            }
+        });
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @Test
+    public void noWindow_dispatchesImmediately() {
+        mBatcher.enqueue(new String[]{"p1"}, PermissionRequest.PRIORITY_USER_INITIATED);
+        mBatcher.enqueue(new String[]{"p2"}, PermissionRequest.PRIORITY_USER_INITIATED);
+
+        assertEquals(2, mDispatched.size());
+    }
+
+    @Test
+    public void window_mergesRequests() {
+        mBatcher.setWindow(10);
+
+        mBatcher.enqueue(new String[]{"p1"}, PermissionRequest.PRIORITY_BACKGROUND);
+        mBatcher.enqueue(new String[]{"p2", "p1"}, PermissionRequest.PRIORITY_PREFETCH);
+        assertEquals(0, mDispatched.size());
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertEquals(1, mDispatched.size());
+        assertArrayEquals(new String[]{"p1", "p2"}, mDispatched.get(0));
+        assertEquals(PermissionRequest.PRIORITY_PREFETCH, (int) mPriorities.get(0));
+    }
+
+    @Test
+    public void window_nextWindowAfterFlush() {
+        mBatcher.setWindow(10);
+
+        mBatcher.enqueue(new String[]{"p1"}, PermissionRequest.PRIORITY_USER_INITIATED);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        mBatcher.enqueue(new String[]{"p2"}, PermissionRequest.PRIORITY_USER_INITIATED);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertEquals(2, mDispatched.size());
+        assertArrayEquals(new String[]{"p2"}, mDispatched.get(1));
+    }
+}
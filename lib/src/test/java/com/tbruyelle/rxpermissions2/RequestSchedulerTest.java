@@ -0,0 +1,152 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestSchedulerTest {
+
+    private final List<String[]> mDispatched = new ArrayList<>();
+    private final Set<String> mWithdrawn = new HashSet<>();
+    private final Set<Integer> mActive = new HashSet<>();
+
+    private RequestScheduler mScheduler;
+
+    @Before
+    public void setup() {
+        mScheduler = new RequestScheduler(new RequestScheduler.Callback() {
+            @Override
+            public int dispatch(@NonNull String[] permissions) {
+                //在锁外发起系统申请
+                assertFalse(Thread.holdsLock(mScheduler));
+                if (mWithdrawn.contains(permissions[0])) {
+                    return RequestScheduler.NO_REQUEST;
+                }
+                mDispatched.add(permissions);
+                int requestCode = mDispatched.size();
+                mActive.add(requestCode);
+                return requestCode;
+            }
+
+            @Override
+            public boolean isActive(int requestCode) {
+                return mActive.contains(requestCode);
+            }
+        });
+    }
+
+    /**
+     * 模拟申请框关闭
+     */
+    private void finishDialog() {
+        mActive.remove(mDispatched.size());
+        mScheduler.next();
+    }
+
+    @Test
+    public void idle_dispatchesImmediately() {
+        mScheduler.enqueue(new String[]{"p1"}, PermissionRequest.PRIORITY_BACKGROUND);
+
+        assertEquals(1, mDispatched.size());
+        assertEquals(0, mScheduler.size());
+    }
+
+    @Test
+    public void requesting_highestPriorityFirst() {
+        mScheduler.enqueue(new String[]{"p1"}, PermissionRequest.PRIORITY_USER_INITIATED);
+        mScheduler.enqueue(new String[]{"background"}, PermissionRequest.PRIORITY_BACKGROUND);
+        mScheduler.enqueue(new String[]{"prefetch"}, PermissionRequest.PRIORITY_PREFETCH);
+        mScheduler.enqueue(new String[]{"user1"}, PermissionRequest.PRIORITY_USER_INITIATED);
+        mScheduler.enqueue(new String[]{"user2"}, PermissionRequest.PRIORITY_USER_INITIATED);
+        assertEquals(1, mDispatched.size());
+        assertEquals(4, mScheduler.size());
+
+        finishDialog();
+        finishDialog();
+        finishDialog();
+        finishDialog();
+
+        assertEquals(5, mDispatched.size());
+        assertArrayEquals(new String[]{"user1"}, mDispatched.get(1));
+        assertArrayEquals(new String[]{"user2"}, mDispatched.get(2));
+        assertArrayEquals(new String[]{"prefetch"}, mDispatched.get(3));
+        assertArrayEquals(new String[]{"background"}, mDispatched.get(4));
+    }
+
+    @Test
+    public void metrics_reportQueueWait() {
+        CountingPermissionMetrics metrics = new CountingPermissionMetrics();
+        mScheduler.setMetrics(metrics);
+
+        mScheduler.enqueue(new String[]{"p1"}, PermissionRequest.PRIORITY_USER_INITIATED);
+        mScheduler.enqueue(new String[]{"p2"}, PermissionRequest.PRIORITY_BACKGROUND);
+        finishDialog();
+
+        assertEquals(2, metrics.getQueuedCount());
+        assertTrue(metrics.getQueueWaitNanos() >= metrics.getMaxQueueWaitNanos());
+    }
+
+    @Test
+    public void activeRequest_notReleasedByOtherEvents() {
+        mScheduler.enqueue(new String[]{"p1"}, PermissionRequest.PRIORITY_USER_INITIATED);
+        mScheduler.enqueue(new String[]{"p2"}, PermissionRequest.PRIORITY_USER_INITIATED);
+
+        //界面回到前台或者收到其他申请的结果，p1的申请框还在显示
+        mScheduler.next();
+        assertEquals(1, mDispatched.size());
+        //p1的结果丢失，等待超时被清理后发起下一个
+        mActive.clear();
+        mScheduler.next();
+
+        assertEquals(2, mDispatched.size());
+        assertArrayEquals(new String[]{"p2"}, mDispatched.get(1));
+    }
+
+    @Test
+    public void resultDuringDispatch_dispatchesNext() {
+        mScheduler = new RequestScheduler(new RequestScheduler.Callback() {
+            @Override
+            public int dispatch(@NonNull String[] permissions) {
+                mDispatched.add(permissions);
+                //平台在发起时同步返回了结果
+                mScheduler.next();
+                return mDispatched.size();
+            }
+
+            @Override
+            public boolean isActive(int requestCode) {
+                return false;
+            }
+        });
+        mScheduler.enqueue(new String[]{"p1"}, PermissionRequest.PRIORITY_USER_INITIATED);
+        mScheduler.enqueue(new String[]{"p2"}, PermissionRequest.PRIORITY_USER_INITIATED);
+
+        assertEquals(2, mDispatched.size());
+        assertEquals(0, mScheduler.size());
+    }
+
+    @Test
+    public void withdrawn_dispatchesNext() {
+        mWithdrawn.add("withdrawn");
+        mScheduler.enqueue(new String[]{"p1"}, PermissionRequest.PRIORITY_USER_INITIATED);
+        mScheduler.enqueue(new String[]{"withdrawn"}, PermissionRequest.PRIORITY_USER_INITIATED);
+        mScheduler.enqueue(new String[]{"p2"}, PermissionRequest.PRIORITY_USER_INITIATED);
+
+        finishDialog();
+
+        assertEquals(2, mDispatched.size());
+        assertArrayEquals(new String[]{"p2"}, mDispatched.get(1));
+        assertEquals(0, mScheduler.size());
+    }
+}
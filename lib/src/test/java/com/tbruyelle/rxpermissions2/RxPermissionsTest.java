@@ -20,6 +20,7 @@ import android.app.Activity;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -32,18 +33,28 @@ import org.robolectric.android.controller.ActivityController;
 import org.robolectric.annotation.Config;
 
 import io.reactivex.Observable;
+import io.reactivex.Single;
 import io.reactivex.observers.TestObserver;
 import io.reactivex.subjects.PublishSubject;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -57,6 +68,8 @@ public class RxPermissionsTest {
 
     @Before
     public void setup() {
+        // The permission state is shared by the whole process
+        PermissionStateStore.getInstance().invalidate();
         ActivityController<FragmentActivity> activityController = Robolectric.buildActivity(FragmentActivity.class);
         mActivity = spy(activityController.setup().get());
         mRxPermissions = spy(new RxPermissions(mActivity));
@@ -367,7 +380,7 @@ public class RxPermissionsTest {
         sub.assertTerminated();
         sub.assertValues(new Permission(permissions[0], true), new Permission(permissions[1], true));
         ArgumentCaptor<String[]> requestedPermissions = ArgumentCaptor.forClass(String[].class);
-        verify(mRxPermissions).requestPermissionsFromFragment(requestedPermissions.capture());
+        verify(mRxPermissions).requestPermissionsFromFragment(requestedPermissions.capture(), eq(PermissionRequest.PRIORITY_USER_INITIATED));
         assertEquals(1, requestedPermissions.getValue().length);
         assertEquals(Manifest.permission.READ_PHONE_STATE, requestedPermissions.getValue()[0]);
     }
@@ -389,7 +402,7 @@ public class RxPermissionsTest {
         sub.assertTerminated();
         sub.assertValues(new Permission(permissions[0] + ", " + permissions[1], true));
         ArgumentCaptor<String[]> requestedPermissions = ArgumentCaptor.forClass(String[].class);
-        verify(mRxPermissions).requestPermissionsFromFragment(requestedPermissions.capture());
+        verify(mRxPermissions).requestPermissionsFromFragment(requestedPermissions.capture(), eq(PermissionRequest.PRIORITY_USER_INITIATED));
         assertEquals(1, requestedPermissions.getValue().length);
         assertEquals(Manifest.permission.READ_PHONE_STATE, requestedPermissions.getValue()[0]);
     }
@@ -516,6 +529,50 @@ public class RxPermissionsTest {
         sub.assertValue(new Permission(permission, true));
     }
 
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void subscription_triggerBurst_coalesced() {
+        TestObserver<Boolean> sub = new TestObserver<>();
+        String permission = Manifest.permission.READ_PHONE_STATE;
+        when(mRxPermissions.isGranted(permission)).thenReturn(false);
+        int[] result = new int[]{PackageManager.PERMISSION_GRANTED};
+        PublishSubject<Object> trigger = PublishSubject.create();
+
+        trigger.compose(mRxPermissions.ensure(permission)).subscribe(sub);
+        trigger.onNext(1);
+        trigger.onNext(2);
+        trigger.onNext(3);
+        mRxPermissions.onRequestPermissionsResult(new String[]{permission}, result);
+
+        sub.assertNoErrors();
+        sub.assertValues(true, true, true);
+        assertEquals(2, mRxPermissions.getCoalescedTriggerCount());
+        verify(mRxPermissions, times(1)).requestPermissionsFromFragment(new String[]{permission}, PermissionRequest.PRIORITY_USER_INITIATED);
+
+        // The next trigger after the result starts a new request
+        trigger.onNext(4);
+        verify(mRxPermissions, times(2)).requestPermissionsFromFragment(new String[]{permission}, PermissionRequest.PRIORITY_USER_INITIATED);
+        assertEquals(2, mRxPermissions.getCoalescedTriggerCount());
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void checkRationale_perPermissionStates() {
+        when(mRxPermissions.isMarshmallow()).thenReturn(true);
+        Activity activity = mock(Activity.class);
+        when(mRxPermissions.isGranted("p1")).thenReturn(true);
+        when(activity.shouldShowRequestPermissionRationale("p2")).thenReturn(true);
+
+        TestObserver<PermissionStates> sub = new TestObserver<>();
+        mRxPermissions.checkRationale(activity, "p1", "p2", "p3").subscribe(sub);
+
+        PermissionStates states = sub.values().get(0);
+        assertTrue(states.isGranted("p1"));
+        assertTrue(states.shouldShowRequestPermissionRationale("p2"));
+        assertFalse(states.shouldShowRequestPermissionRationale("p3"));
+        verify(activity, never()).shouldShowRequestPermissionRationale("p1");
+    }
+
     @Test
     @TargetApi(Build.VERSION_CODES.M)
     public void shouldShowRequestPermissionRationale_allDenied_allRationale() {
@@ -673,4 +730,483 @@ public class RxPermissionsTest {
 
         assertFalse(revoked);
     }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void isGranted_cached() {
+        // unmock isGranted
+        doCallRealMethod().when(mRxPermissions).isGranted(anyString());
+        doReturn(true).when(mRxPermissions).isMarshmallow();
+        when(mActivity.checkSelfPermission("p")).thenReturn(PackageManager.PERMISSION_GRANTED);
+
+        mRxPermissions.isGranted("p");
+        boolean granted = mRxPermissions.isGranted("p");
+
+        assertTrue(granted);
+        verify(mActivity, times(1)).checkSelfPermission("p");
+        assertEquals(1, mRxPermissions.getStateCache().getHitCount());
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void isGranted_detachedCountsHits() {
+        FragmentActivity activity = Robolectric.buildActivity(FragmentActivity.class).setup().get();
+        RxPermissions rxPermissions = new RxPermissions(activity);
+        PermissionStateCache cache = rxPermissions.mStateCache;
+
+        rxPermissions.isGranted("p");
+        rxPermissions.isGranted("p");
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void getStateCache_doesNotAddFragment() {
+        FragmentActivity activity = Robolectric.buildActivity(FragmentActivity.class).setup().get();
+        RxPermissions rxPermissions = new RxPermissions(activity);
+
+        assertSame(rxPermissions.mStateCache, rxPermissions.getStateCache());
+        assertNull(activity.getSupportFragmentManager().findFragmentByTag(RxPermissions.TAG));
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void isGranted_invalidated() {
+        // unmock isGranted
+        doCallRealMethod().when(mRxPermissions).isGranted(anyString());
+        doReturn(true).when(mRxPermissions).isMarshmallow();
+        when(mActivity.checkSelfPermission("p")).thenReturn(PackageManager.PERMISSION_DENIED);
+
+        mRxPermissions.isGranted("p");
+        when(mActivity.checkSelfPermission("p")).thenReturn(PackageManager.PERMISSION_GRANTED);
+        mRxPermissions.invalidate();
+        boolean granted = mRxPermissions.isGranted("p");
+
+        assertTrue(granted);
+        verify(mActivity, times(2)).checkSelfPermission("p");
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void subscription_reusedRequestPlan() {
+        PermissionRequest request = PermissionRequest.of(Manifest.permission.CAMERA, Manifest.permission.READ_PHONE_STATE);
+        when(mRxPermissions.isGranted(Manifest.permission.CAMERA)).thenReturn(true);
+        TestObserver<Permission> first = new TestObserver<>();
+        TestObserver<Permission> second = new TestObserver<>();
+
+        trigger().compose(mRxPermissions.ensureEach(request)).subscribe(first);
+        mRxPermissions.onRequestPermissionsResult(new String[]{Manifest.permission.READ_PHONE_STATE}, new int[]{PackageManager.PERMISSION_GRANTED});
+        trigger().compose(mRxPermissions.ensureEach(request)).subscribe(second);
+        mRxPermissions.onRequestPermissionsResult(new String[]{Manifest.permission.READ_PHONE_STATE}, new int[]{PackageManager.PERMISSION_DENIED});
+
+        first.assertValues(new Permission(Manifest.permission.CAMERA, true), new Permission(Manifest.permission.READ_PHONE_STATE, true));
+        second.assertValues(new Permission(Manifest.permission.CAMERA, true), new Permission(Manifest.permission.READ_PHONE_STATE, false));
+        verify(mRxPermissions, times(2)).requestPermissionsFromFragment(new String[]{Manifest.permission.READ_PHONE_STATE}, PermissionRequest.PRIORITY_USER_INITIATED);
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void priority_userRequestBeforeQueuedBackground() {
+        RxPermissionsFragment fragment = mRxPermissions.mRxPermissionsFragment.get();
+        TestObserver<Permission> background = new TestObserver<>();
+        TestObserver<Permission> user = new TestObserver<>();
+
+        mRxPermissions.requestEach(PermissionRequest.of("p1")).subscribe(new TestObserver<Permission>());
+        mRxPermissions.requestEach(PermissionRequest.of("background")
+                .withPriority(PermissionRequest.PRIORITY_BACKGROUND)).subscribe(background);
+        mRxPermissions.requestEach(PermissionRequest.of("p2")).subscribe(user);
+        assertEquals(2, fragment.getQueuedCount());
+        mRxPermissions.onRequestPermissionsResult(new String[]{"p1"}, new int[]{PackageManager.PERMISSION_GRANTED});
+
+        assertTrue(fragment.getEngine().isRequested("p2"));
+        assertFalse(fragment.getEngine().isRequested("background"));
+        assertEquals(1, fragment.getQueuedCount());
+        mRxPermissions.onRequestPermissionsResult(new String[]{"p2"}, new int[]{PackageManager.PERMISSION_GRANTED});
+
+        user.assertValue(new Permission("p2", true));
+        assertTrue(fragment.getEngine().isRequested("background"));
+        background.assertNoValues();
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void resume_keepsQueueWhileDialogShowing() {
+        RxPermissionsFragment fragment = mRxPermissions.mRxPermissionsFragment.get();
+
+        mRxPermissions.requestEach("p1").subscribe(new TestObserver<Permission>());
+        mRxPermissions.requestEach("p2").subscribe(new TestObserver<Permission>());
+        // The dialog for p1 is still showing, resuming must not start an overlapping request
+        fragment.onResume();
+
+        assertTrue(fragment.getEngine().isRequested("p1"));
+        assertFalse(fragment.getEngine().isRequested("p2"));
+        assertEquals(1, fragment.getQueuedCount());
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void lostResult_expiredOnResumeDispatchesQueued() throws InterruptedException {
+        RxPermissionsFragment fragment = mRxPermissions.mRxPermissionsFragment.get();
+        mRxPermissions.setPendingTimeout(1);
+        TestObserver<Permission> queued = new TestObserver<>();
+
+        mRxPermissions.requestEach("p1").subscribe(new TestObserver<Permission>());
+        mRxPermissions.requestEach("p2").subscribe(queued);
+        // The result of p1 never arrives, the timeout releases the queue
+        Thread.sleep(5);
+        fragment.onResume();
+
+        assertFalse(fragment.getEngine().isRequested("p1"));
+        assertTrue(fragment.getEngine().isRequested("p2"));
+        assertEquals(0, fragment.getQueuedCount());
+        mRxPermissions.onRequestPermissionsResult(new String[]{"p2"}, new int[]{PackageManager.PERMISSION_GRANTED});
+        queued.assertValue(new Permission("p2", true));
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void dispose_withdrawsQueuedRequest() {
+        RxPermissionsFragment fragment = mRxPermissions.mRxPermissionsFragment.get();
+        TestObserver<Permission> abandoned = new TestObserver<>();
+
+        mRxPermissions.requestEach("p1").subscribe(new TestObserver<Permission>());
+        mRxPermissions.requestEach("p2").subscribe(abandoned);
+        PublishSubject<Permission> withdrawn = fragment.getSubjectByPermission("p2");
+        abandoned.dispose();
+        assertEquals(1, fragment.getPendingCount());
+        mRxPermissions.onRequestPermissionsResult(new String[]{"p1"}, new int[]{PackageManager.PERMISSION_GRANTED});
+
+        // The withdrawn request is detached, neither dispatched nor completed
+        assertFalse(fragment.getEngine().isRequested("p2"));
+        assertNotNull(withdrawn);
+        assertFalse(withdrawn.hasComplete());
+        abandoned.assertNotComplete();
+        assertEquals(0, fragment.getQueuedCount());
+        assertEquals(0, fragment.getPendingCount());
+        assertEquals(1, mRxPermissions.getEvictedCount());
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void logger_receivesEvents() {
+        PermissionLogger logger = mock(PermissionLogger.class);
+        when(logger.isLoggable(anyInt())).thenReturn(true);
+        mRxPermissions.setLogger(logger);
+        TestObserver<Permission> sub = new TestObserver<>();
+
+        trigger().compose(mRxPermissions.ensureEach("p")).subscribe(sub);
+        mRxPermissions.onRequestPermissionsResult(new String[]{"p"}, new int[]{PackageManager.PERMISSION_GRANTED});
+
+        sub.assertValue(new Permission("p", true));
+        verify(logger).onEvent(PermissionLogger.EVENT_REQUEST, "p", -1, false);
+        verify(logger).onEvent(eq(PermissionLogger.EVENT_RESULT), eq("p"), anyInt(), eq(true));
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void logger_disabled() {
+        PermissionLogger logger = mock(PermissionLogger.class);
+        mRxPermissions.setLogger(logger);
+        TestObserver<Permission> sub = new TestObserver<>();
+
+        trigger().compose(mRxPermissions.ensureEach("p")).subscribe(sub);
+        mRxPermissions.onRequestPermissionsResult(new String[]{"p"}, new int[]{PackageManager.PERMISSION_GRANTED});
+
+        sub.assertValue(new Permission("p", true));
+        verify(logger, never()).log(anyInt(), anyString(), any());
+        verify(logger, never()).onEvent(anyInt(), anyString(), anyInt(), anyBoolean());
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void metrics_countsResults() {
+        CountingPermissionMetrics metrics = new CountingPermissionMetrics();
+        mRxPermissions.setMetrics(metrics);
+        TestObserver<Permission> sub = new TestObserver<>();
+
+        trigger().compose(mRxPermissions.ensureEach("p1", "p2")).subscribe(sub);
+        assertEquals(2, metrics.getPendingCount());
+        mRxPermissions.onRequestPermissionsResult(new String[]{"p1", "p2"},
+                new int[]{PackageManager.PERMISSION_GRANTED, PackageManager.PERMISSION_DENIED});
+
+        sub.assertValues(new Permission("p1", true), new Permission("p2", false));
+        assertEquals(2, metrics.getCheckCount());
+        assertEquals(1, metrics.getGrantedCount("p1"));
+        assertEquals(1, metrics.getDeniedCount("p2"));
+        assertEquals(1, metrics.getDialogCount());
+        assertEquals(0, metrics.getPendingCount());
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void denialHistory_skipsDialog() {
+        PermissionDenialHistory history = mock(PermissionDenialHistory.class);
+        when(history.shouldSkipRequest("p")).thenReturn(true);
+        mRxPermissions.setDenialHistory(history);
+        TestObserver<Permission> sub = new TestObserver<>();
+
+        trigger().compose(mRxPermissions.ensureEach("p")).subscribe(sub);
+
+        sub.assertValue(new Permission("p", false, false));
+        verify(mRxPermissions, never()).requestPermissionsFromFragment(Matchers.<String[]>any(), anyInt());
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void isGranted_sharedAcrossActivities() {
+        // unmock isGranted
+        doCallRealMethod().when(mRxPermissions).isGranted(anyString());
+        doReturn(true).when(mRxPermissions).isMarshmallow();
+        when(mActivity.checkSelfPermission("p")).thenReturn(PackageManager.PERMISSION_GRANTED);
+        FragmentActivity otherActivity = spy(Robolectric.buildActivity(FragmentActivity.class).create().get());
+        RxPermissions otherRxPermissions = spy(new RxPermissions(otherActivity));
+        doReturn(true).when(otherRxPermissions).isMarshmallow();
+
+        mRxPermissions.isGranted("p");
+        boolean granted = otherRxPermissions.isGranted("p");
+
+        assertTrue(granted);
+        verify(otherActivity, never()).checkSelfPermission("p");
+    }
+
+    @Test
+    public void of_sameInstancePerActivity() {
+        FragmentActivity otherActivity = Robolectric.buildActivity(FragmentActivity.class).create().get();
+
+        RxPermissions rxPermissions = RxPermissions.of(mActivity);
+
+        assertSame(rxPermissions, RxPermissions.of(mActivity));
+        assertNotSame(rxPermissions, RxPermissions.of(otherActivity));
+        assertSame(rxPermissions, RxPermissions.of(mActivity));
+    }
+
+    @Test
+    public void peek_findsFragmentAddedByOtherInstance() {
+        FragmentActivity activity = Robolectric.buildActivity(FragmentActivity.class).create().get();
+        RxPermissions first = new RxPermissions(activity);
+        RxPermissions second = new RxPermissions(activity);
+
+        assertNull(first.mRxPermissionsFragment.peek());
+        RxPermissionsFragment fragment = second.mRxPermissionsFragment.get();
+
+        // A miss is not cached, the fragment added later is found on the next lookup
+        assertSame(fragment, first.mRxPermissionsFragment.peek());
+    }
+
+    @Test
+    public void pool_settingsOutliveInstance() {
+        RxPermissionsPool pool = new RxPermissionsPool();
+        FragmentManager fragmentManager = mActivity.getSupportFragmentManager();
+        RxPermissions rxPermissions = pool.putIfAbsent(fragmentManager,
+                new RxPermissions(mActivity, pool.getSettings(fragmentManager)));
+
+        rxPermissions.setPendingTimeout(1000);
+
+        // An instance recreated after the shared one was collected is built from these settings
+        assertEquals(1000, pool.getSettings(fragmentManager).pendingTimeoutMillis);
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void isGranted_invalidatedOnResult() {
+        // unmock isGranted
+        doCallRealMethod().when(mRxPermissions).isGranted(anyString());
+        doReturn(true).when(mRxPermissions).isMarshmallow();
+        when(mActivity.checkSelfPermission("p")).thenReturn(PackageManager.PERMISSION_DENIED);
+        TestObserver<Permission> sub = new TestObserver<>();
+
+        trigger().compose(mRxPermissions.ensureEach("p")).subscribe(sub);
+        when(mActivity.checkSelfPermission("p")).thenReturn(PackageManager.PERMISSION_GRANTED);
+        mRxPermissions.onRequestPermissionsResult(new String[]{"p"}, new int[]{PackageManager.PERMISSION_GRANTED});
+
+        sub.assertValue(new Permission("p", true));
+        assertTrue(mRxPermissions.isGranted("p"));
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void isRevoked_cached() {
+        // unmock isRevoked
+        doCallRealMethod().when(mRxPermissions).isRevoked(anyString());
+        doReturn(true).when(mRxPermissions).isMarshmallow();
+        PackageManager pm = mock(PackageManager.class);
+        when(mActivity.getPackageManager()).thenReturn(pm);
+        when(pm.isPermissionRevokedByPolicy(eq("p"), anyString())).thenReturn(true);
+
+        mRxPermissions.isRevoked("p");
+        boolean revoked = mRxPermissions.isRevoked("p");
+
+        assertTrue(revoked);
+        verify(pm, times(1)).isPermissionRevokedByPolicy(eq("p"), anyString());
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void subscription_alreadyGranted_withoutFragment() {
+        FragmentActivity activity = spy(Robolectric.buildActivity(FragmentActivity.class).setup().get());
+        String permission = Manifest.permission.READ_PHONE_STATE;
+        when(activity.checkSelfPermission(permission)).thenReturn(PackageManager.PERMISSION_GRANTED);
+        RxPermissions rxPermissions = new RxPermissions(activity);
+        TestObserver<Boolean> sub = new TestObserver<>();
+
+        rxPermissions.request(permission).subscribe(sub);
+
+        sub.assertNoErrors();
+        sub.assertTerminated();
+        sub.assertValue(true);
+        assertNull(activity.getSupportFragmentManager().findFragmentByTag(RxPermissions.TAG));
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void subscription_denied_addsFragment() {
+        FragmentActivity activity = spy(Robolectric.buildActivity(FragmentActivity.class).setup().get());
+        String permission = Manifest.permission.READ_PHONE_STATE;
+        when(activity.checkSelfPermission(permission)).thenReturn(PackageManager.PERMISSION_DENIED);
+        PackageManager pm = mock(PackageManager.class);
+        when(activity.getPackageManager()).thenReturn(pm);
+        RxPermissions rxPermissions = new RxPermissions(activity);
+
+        rxPermissions.request(permission).subscribe(new TestObserver<Boolean>());
+
+        assertNotNull(activity.getSupportFragmentManager().findFragmentByTag(RxPermissions.TAG));
+    }
+
+    private Single<Object> singleTrigger() {
+        return Single.just(RxPermissions.TRIGGER);
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void singleSubscription_alreadyGranted() {
+        TestObserver<Boolean> sub = new TestObserver<>();
+        String permission = Manifest.permission.READ_PHONE_STATE;
+        when(mRxPermissions.isGranted(permission)).thenReturn(true);
+
+        singleTrigger().compose(mRxPermissions.ensureSingle(permission)).subscribe(sub);
+
+        sub.assertNoErrors();
+        sub.assertTerminated();
+        sub.assertValue(true);
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void singleSubscription_granted() {
+        TestObserver<Boolean> sub = new TestObserver<>();
+        String permission = Manifest.permission.READ_PHONE_STATE;
+        when(mRxPermissions.isGranted(permission)).thenReturn(false);
+        int[] result = new int[]{PackageManager.PERMISSION_GRANTED};
+
+        mRxPermissions.requestSingle(permission).subscribe(sub);
+        sub.assertNotTerminated();
+        mRxPermissions.onRequestPermissionsResult(new String[]{permission}, result);
+
+        sub.assertNoErrors();
+        sub.assertTerminated();
+        sub.assertValue(true);
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void singleSubscription_denied() {
+        TestObserver<Boolean> sub = new TestObserver<>();
+        String permission = Manifest.permission.READ_PHONE_STATE;
+        when(mRxPermissions.isGranted(permission)).thenReturn(false);
+        int[] result = new int[]{PackageManager.PERMISSION_DENIED};
+
+        singleTrigger().compose(mRxPermissions.ensureSingle(permission)).subscribe(sub);
+        mRxPermissions.onRequestPermissionsResult(new String[]{permission}, result);
+
+        sub.assertNoErrors();
+        sub.assertTerminated();
+        sub.assertValue(false);
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void singleSubscription_revoked() {
+        TestObserver<Boolean> sub = new TestObserver<>();
+        String permission = Manifest.permission.READ_PHONE_STATE;
+        when(mRxPermissions.isRevoked(permission)).thenReturn(true);
+
+        singleTrigger().compose(mRxPermissions.ensureSingle(permission)).subscribe(sub);
+
+        sub.assertNoErrors();
+        sub.assertTerminated();
+        sub.assertValue(false);
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void singleSubscription_severalPermissions_oneDenied() {
+        TestObserver<Boolean> sub = new TestObserver<>();
+        String[] permissions = new String[]{Manifest.permission.READ_PHONE_STATE, Manifest.permission.CAMERA};
+        when(mRxPermissions.isGranted(Matchers.<String>anyVararg())).thenReturn(false);
+        int[] result = new int[]{PackageManager.PERMISSION_GRANTED, PackageManager.PERMISSION_DENIED};
+
+        singleTrigger().compose(mRxPermissions.ensureSingle(permissions)).subscribe(sub);
+        mRxPermissions.onRequestPermissionsResult(permissions, result);
+
+        sub.assertNoErrors();
+        sub.assertTerminated();
+        sub.assertValue(false);
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void singleSubscriptionCombined_severalPermissions_granted() {
+        TestObserver<Permission> sub = new TestObserver<>();
+        String[] permissions = new String[]{Manifest.permission.READ_PHONE_STATE, Manifest.permission.CAMERA};
+        when(mRxPermissions.isGranted(Matchers.<String>anyVararg())).thenReturn(false);
+        int[] result = new int[]{PackageManager.PERMISSION_GRANTED, PackageManager.PERMISSION_GRANTED};
+
+        mRxPermissions.requestEachCombinedSingle(permissions).subscribe(sub);
+        mRxPermissions.onRequestPermissionsResult(permissions, result);
+
+        sub.assertNoErrors();
+        sub.assertTerminated();
+        sub.assertValue(new Permission(permissions[0] + ", " + permissions[1], true));
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void singleSubscriptionCombined_severalPermissions_oneAlreadyGranted() {
+        TestObserver<Permission> sub = new TestObserver<>();
+        String[] permissions = new String[]{Manifest.permission.READ_PHONE_STATE, Manifest.permission.CAMERA};
+        when(mRxPermissions.isGranted(Matchers.<String>anyVararg())).thenReturn(false);
+        when(mRxPermissions.isGranted(Manifest.permission.CAMERA)).thenReturn(true);
+
+        singleTrigger().compose(mRxPermissions.ensureEachCombinedSingle(permissions)).subscribe(sub);
+        mRxPermissions.onRequestPermissionsResult(
+                new String[]{Manifest.permission.READ_PHONE_STATE},
+                new int[]{PackageManager.PERMISSION_GRANTED});
+
+        sub.assertNoErrors();
+        sub.assertTerminated();
+        sub.assertValue(new Permission(permissions[0] + ", " + permissions[1], true));
+        ArgumentCaptor<String[]> requestedPermissions = ArgumentCaptor.forClass(String[].class);
+        verify(mRxPermissions).requestPermissionsFromFragment(requestedPermissions.capture(), eq(PermissionRequest.PRIORITY_USER_INITIATED));
+        assertEquals(1, requestedPermissions.getValue().length);
+        assertEquals(Manifest.permission.READ_PHONE_STATE, requestedPermissions.getValue()[0]);
+    }
+
+    @Test
+    @TargetApi(Build.VERSION_CODES.M)
+    public void singleSubscriptionCombined_severalPermissions_oneRevoked() {
+        TestObserver<Permission> sub = new TestObserver<>();
+        String[] permissions = new String[]{Manifest.permission.READ_PHONE_STATE, Manifest.permission.CAMERA};
+        when(mRxPermissions.isGranted(Matchers.<String>anyVararg())).thenReturn(false);
+        when(mRxPermissions.isRevoked(Manifest.permission.CAMERA)).thenReturn(true);
+
+        singleTrigger().compose(mRxPermissions.ensureEachCombinedSingle(permissions)).subscribe(sub);
+        mRxPermissions.onRequestPermissionsResult(
+                new String[]{Manifest.permission.READ_PHONE_STATE},
+                new int[]{PackageManager.PERMISSION_GRANTED});
+
+        sub.assertNoErrors();
+        sub.assertTerminated();
+        sub.assertValue(new Permission(permissions[0] + ", " + permissions[1], false));
+    }
 }
@@ -0,0 +1,106 @@
+package com.tbruyelle.rxpermissions2;
+
+import android.Manifest;
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.M)
+public class SharedPreferencesDenialHistoryTest {
+
+    private SharedPreferencesDenialHistory mHistory;
+
+    @Before
+    public void setup() {
+        mHistory = new SharedPreferencesDenialHistory(RuntimeEnvironment.application);
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @Test
+    public void deniedWithRationale_notSkipped() {
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, false, true));
+
+        assertFalse(mHistory.shouldSkipRequest(Manifest.permission.CAMERA));
+        assertEquals(1, mHistory.getDenialCount(Manifest.permission.CAMERA));
+    }
+
+    @Test
+    public void dismissedWithoutChoice_notSkipped() {
+        //Android 11以上没有选择就关闭申请框，结果和勾选了不再提示一样
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, false, false));
+
+        assertFalse(mHistory.shouldSkipRequest(Manifest.permission.CAMERA));
+        assertEquals(1, mHistory.getDenialCount(Manifest.permission.CAMERA));
+    }
+
+    @Test
+    public void neverAskAgainAfterRationale_skipped() {
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, false, true));
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, false, false));
+
+        assertTrue(mHistory.shouldSkipRequest(Manifest.permission.CAMERA));
+    }
+
+    @Test
+    public void dismissedTwice_notSkipped() {
+        //Android 11以上连续两次没有选择就关闭申请框，不是勾选了不再提示
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, false, false));
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, false, false));
+
+        assertFalse(mHistory.shouldSkipRequest(Manifest.permission.CAMERA));
+        assertEquals(2, mHistory.getDenialCount(Manifest.permission.CAMERA));
+    }
+
+    @Test
+    public void neverAskAgain_skippedAfterRestart() {
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, false, true));
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, false, false));
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        SharedPreferencesDenialHistory restored = new SharedPreferencesDenialHistory(RuntimeEnvironment.application);
+
+        assertTrue(restored.shouldSkipRequest(Manifest.permission.CAMERA));
+    }
+
+    @Test
+    public void rationale_restoredAfterRestart() {
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, false, true));
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        SharedPreferencesDenialHistory restored = new SharedPreferencesDenialHistory(RuntimeEnvironment.application);
+        restored.onResult(new Permission(Manifest.permission.CAMERA, false, false));
+
+        assertTrue(restored.shouldSkipRequest(Manifest.permission.CAMERA));
+    }
+
+    @Test
+    public void granted_clearsHistory() {
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, false, false));
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, true));
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        SharedPreferencesDenialHistory restored = new SharedPreferencesDenialHistory(RuntimeEnvironment.application);
+
+        assertFalse(mHistory.shouldSkipRequest(Manifest.permission.CAMERA));
+        assertFalse(restored.shouldSkipRequest(Manifest.permission.CAMERA));
+    }
+
+    @Test
+    public void cooldown_skipsRecentDenial() {
+        mHistory.setCooldown(60000);
+        mHistory.onResult(new Permission(Manifest.permission.CAMERA, false, true));
+
+        assertTrue(mHistory.shouldSkipRequest(Manifest.permission.CAMERA));
+    }
+}